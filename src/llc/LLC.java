@@ -19,7 +19,7 @@ import llc.input.KeyBinding;
 import llc.input.KeyboardListener;
 import llc.loading.GameLoader;
 import llc.loading.Settings;
-import llc.logic.Cell;
+import llc.logic.Grid;
 import llc.logic.Logic;
 import llc.logic.Player;
 
@@ -74,11 +74,11 @@ public class LLC implements IKeybindingListener {
 				camera.scroll(d);
 				float yOffset = camera.pos.z * (camera.viewDir.y / camera.viewDir.z);
 				float xOffset = camera.pos.z * (camera.viewDir.x / camera.viewDir.z);
-				Cell[][] cells = logic.getGameState().getGrid().getCells();
+				Grid grid = logic.getGameState().getGrid();
 				if(camera.pos.x < 0 + xOffset)	camera.pos.x = 0;
 				if(camera.pos.y < 0 + yOffset)	camera.pos.y = 0 + yOffset;
-				if(camera.pos.y > cells.length + yOffset)	camera.pos.y = cells.length + yOffset;
-				if(camera.pos.x > cells[0].length + xOffset) camera.pos.x = cells[0].length + xOffset;
+				if(camera.pos.y > grid.getHeigth() + yOffset)	camera.pos.y = grid.getHeigth() + yOffset;
+				if(camera.pos.x > grid.getWidth() + xOffset) camera.pos.x = grid.getWidth() + xOffset;
 			}
 
 			@Override
@@ -194,6 +194,16 @@ public class LLC implements IKeybindingListener {
 			}
 			
 			
+			// Grid changes
+			this.profiler.endStart("Grid updates");
+			Grid grid = this.logic.getGameState().getGrid();
+			if(this.renderer.getGrid() != grid) {
+				// a new game was started or loaded
+				this.renderer.generateGridGeometry(this.logic.getGameState());
+				this.input.setGridGeometry(this.renderer.getGridGeometry());
+			}
+			grid.publishChanges();
+			
 			// Rendering
 			this.profiler.endStart("Render game");
 			this.camera.update(delta);
@@ -212,6 +222,7 @@ public class LLC implements IKeybindingListener {
 		}
 
 		this.soundEngine.dispose();
+		this.logic.finishPathMetrics();
 		Settings.saveSettings(this.settings);
 		if(Display.isCreated()) Display.destroy();
 	}
@@ -290,6 +301,10 @@ public class LLC implements IKeybindingListener {
 	 * Starts a new game
 	 */
 	public void startNewGame() {
+		if(this.logic != null) {
+			this.logic.finishPathMetrics();
+			this.logic.getGameState().dispose();
+		}
 		this.gameLoader = new GameLoader();
 		this.logic = new Logic(gameLoader.createNewGame("res/maps/areas/map-2_areas.png"), this.input);
 		if(this.width != 0) this.guiRenderer.openGUI(new GUIIngame(this.logic, gameLoader));
@@ -0,0 +1,415 @@
+package llc.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import llc.entity.Entity;
+import llc.entity.IAttacking;
+import llc.logic.EntityRegistry;
+import llc.logic.Grid;
+import llc.logic.Player;
+
+/**
+ * Threat and control maps of every player for AI decisions.
+ * Every entity spreads its influence over the cells around it, weakened by {@link #DECAY} per cell in x and in y:
+ * the control of an entity is its health, the threat of an attacking entity its attack damage scaled by its health.
+ * <p>
+ * The kernel is separable, so a full build convolves the rows and then the columns of the source map, in tiles on a
+ * {@link ForkJoinPool}. The maps are linear in the sources, so when only a few entities changed the last maps are
+ * copied and the old stamps of those entities are subtracted and the new ones added instead.
+ * Builds run in the background. A published snapshot is never written again: a build only reuses the buffers of
+ * a snapshot that was replaced and released by all of its readers, so while readers give their snapshots back
+ * promptly two sets of maps are enough. The scratch maps of a full build are allocated once and kept.
+ */
+public class InfluenceMap {
+
+	/** The distance in cells up to which an entity has influence */
+	public static final int RADIUS = 8;
+	/** The factor the influence is multiplied with per cell of distance on each axis */
+	public static final float DECAY = 0.7F;
+	/** The width and height of the tiles computed by one task */
+	private static final int TILE_SIZE = 64;
+	/** After this many incremental builds the maps are built from scratch again, so rounding errors don't add up */
+	private static final int MAX_INCREMENTAL_BUILDS = 64;
+
+	private static final float[] KERNEL = new float[RADIUS + 1];
+	static {
+		KERNEL[0] = 1;
+		for(int d = 1; d <= RADIUS; d++) KERNEL[d] = KERNEL[d - 1] * DECAY;
+	}
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int players;
+	private final ForkJoinPool pool;
+
+	/** The sources the last build was started with */
+	private final Map<Entity, Source> sources = new IdentityHashMap<Entity, Source>();
+	private int incrementalBuilds = MAX_INCREMENTAL_BUILDS;
+	private ForkJoinTask<?> build;
+
+	private volatile Snapshot front;
+	/** The buffers of the snapshots nobody reads anymore, reused by the next builds */
+	private final ConcurrentLinkedQueue<float[][]> free = new ConcurrentLinkedQueue<float[][]>();
+
+	// Scratch maps of the full builds, only used by the running build
+	private float[][] sourceMap;
+	private float[][] rows;
+	private boolean[][] rowHasSource;
+
+	/**
+	 * The influence of one entity at the time of a build
+	 */
+	private static class Source {
+		final int cell;
+		final int player;
+		final float threat;
+		final float control;
+
+		Source(int cell, int player, float threat, float control) {
+			this.cell = cell;
+			this.player = player;
+			this.threat = threat;
+			this.control = control;
+		}
+
+		boolean sameAs(Source other) {
+			return this.cell == other.cell && this.player == other.player && this.threat == other.threat && this.control == other.control;
+		}
+	}
+
+	/**
+	 * The maps of one build. The layers of player p are 2p for the threat and 2p + 1 for the control,
+	 * indexed by cell (y * width + x). The maps never change; the influence map holds one reference to its newest
+	 * snapshot and every {@link InfluenceMap#getSnapshot()} one more, the buffers are reused when all are released.
+	 */
+	public static class Snapshot {
+
+		private final float[][] layers;
+		private final int width;
+		private final int version;
+		private final ConcurrentLinkedQueue<float[][]> free;
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		Snapshot(float[][] layers, int width, int version, ConcurrentLinkedQueue<float[][]> free) {
+			this.layers = layers;
+			this.width = width;
+			this.version = version;
+			this.free = free;
+		}
+
+		/**
+		 * Gives the snapshot back, it must not be read afterwards. Call it once for every time it was gotten.
+		 */
+		public void release() {
+			if(this.references.decrementAndGet() == 0) this.free.offer(this.layers);
+		}
+
+		/**
+		 * Adds a reference unless the snapshot was released completely already
+		 */
+		boolean retain() {
+			while(true) {
+				int count = this.references.get();
+				if(count == 0) return false;
+				if(this.references.compareAndSet(count, count + 1)) return true;
+			}
+		}
+
+		/**
+		 * Gets the threat the entities of the player exert on the cell
+		 */
+		public float getThreat(Player player, int x, int y) {
+			return this.get(2 * player.getPlayerID(), x, y);
+		}
+
+		/**
+		 * Gets the control the entities of the player have over the cell
+		 */
+		public float getControl(Player player, int x, int y) {
+			return this.get(2 * player.getPlayerID() + 1, x, y);
+		}
+
+		/**
+		 * Gets the threat the entities of all other players exert on the cell
+		 */
+		public float getEnemyThreat(Player player, int x, int y) {
+			float threat = 0;
+			for(int p = 0; p < this.layers.length / 2; p++) if(p != player.getPlayerID()) threat += this.get(2 * p, x, y);
+			return threat;
+		}
+
+		/**
+		 * Gets the control of the player minus the control of all other players, positive where the player rules
+		 */
+		public float getBalance(Player player, int x, int y) {
+			float balance = 0;
+			for(int p = 0; p < this.layers.length / 2; p++) balance += p == player.getPlayerID() ? this.get(2 * p + 1, x, y) : -this.get(2 * p + 1, x, y);
+			return balance;
+		}
+
+		/**
+		 * Gets the number of the build, it grows with every build
+		 */
+		public int getVersion() {
+			return this.version;
+		}
+
+		private float get(int layer, int x, int y) {
+			return layer < this.layers.length ? this.layers[layer][y * this.width + x] : 0;
+		}
+	}
+
+	/**
+	 * Creates the maps for the players with the ids 0 to players - 1, using one worker per available processor
+	 */
+	public InfluenceMap(Grid grid, int players) {
+		this(grid, players, new ForkJoinPool());
+	}
+
+	public InfluenceMap(Grid grid, int players, ForkJoinPool pool) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.players = players;
+		this.pool = pool;
+	}
+
+	/**
+	 * Starts a build in the background if the entities changed since the last one. Must be called on the game thread.
+	 * @return false if the last build isn't finished yet, the changes are picked up by a later call then
+	 */
+	public boolean update() {
+		if(this.build != null && !this.build.isDone()) return false;
+
+		// compare the entities with the sources of the last build
+		List<Source> removed = new ArrayList<Source>();
+		List<Source> added = new ArrayList<Source>();
+		Map<Entity, Source> current = new IdentityHashMap<Entity, Source>();
+		EntityRegistry entities = this.grid.getEntities();
+		for(int i = 0; i < entities.size(); i++) {
+			Entity entity = entities.getAt(i);
+			Source source = this.sourceOf(entity);
+			if(source != null) current.put(entity, source);
+		}
+		for(Iterator<Map.Entry<Entity, Source>> it = this.sources.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Entity, Source> entry = it.next();
+			Source now = current.remove(entry.getKey());
+			if(now == null) {
+				removed.add(entry.getValue());
+				it.remove();
+			} else if(!now.sameAs(entry.getValue())) {
+				removed.add(entry.getValue());
+				added.add(now);
+				entry.setValue(now);
+			}
+		}
+		// the rest is new
+		added.addAll(current.values());
+		this.sources.putAll(current);
+		if(this.front != null && removed.isEmpty() && added.isEmpty()) return true;
+
+		final Snapshot last = this.front;
+		final int version = last == null ? 0 : last.version + 1;
+		float[][] recycled = this.free.poll();
+		final float[][] target = recycled != null ? recycled : new float[2 * this.players][this.width * this.height];
+		boolean incremental = last != null && this.incrementalBuilds < MAX_INCREMENTAL_BUILDS
+				&& (long)(removed.size() + added.size()) * (2 * RADIUS + 1) <= (long)this.width * this.height;
+		final Source[] all;
+		final Source[] minus;
+		final Source[] plus;
+		if(incremental) {
+			this.incrementalBuilds++;
+			all = null;
+			minus = removed.toArray(new Source[removed.size()]);
+			plus = added.toArray(new Source[added.size()]);
+		} else {
+			this.incrementalBuilds = 0;
+			all = this.sources.values().toArray(new Source[this.sources.size()]);
+			minus = plus = null;
+		}
+
+		this.build = this.pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				if(all != null) buildFull(all, target);
+				else buildIncremental(last.layers, minus, plus, target);
+				front = new Snapshot(target, width, version, free);
+				// the reference of the map is kept until here, so the incremental build could read the last maps
+				if(last != null) last.release();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Waits until the running build is finished
+	 */
+	public void awaitBuild() {
+		if(this.build != null) this.build.join();
+	}
+
+	/**
+	 * Gets the maps of the last finished build. They never change and can be read on any thread until they are given
+	 * back with {@link Snapshot#release()}; a snapshot that isn't released is never reused.
+	 * @return the maps or null if no build finished yet
+	 */
+	public Snapshot getSnapshot() {
+		while(true) {
+			Snapshot snapshot = this.front;
+			// a replaced snapshot may have been released completely in between, then the new one is taken
+			if(snapshot == null || snapshot.retain()) return snapshot;
+		}
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	private Source sourceOf(Entity entity) {
+		if(entity.getPlayer() == null || entity.getPlayer().getPlayerID() >= this.players || entity.health <= 0) return null;
+		int x = (int)entity.getX();
+		int y = (int)entity.getY();
+		if(x < 0 || y < 0 || x >= this.width || y >= this.height) return null;
+		float health = entity.maxHealth > 0 ? (float)entity.health / entity.maxHealth : 1;
+		float threat = entity instanceof IAttacking ? ((IAttacking)entity).getAttackDamage() * health : 0;
+		return new Source(y * this.width + x, entity.getPlayer().getPlayerID(), threat, entity.health);
+	}
+
+	/**
+	 * Convolves the source maps with the kernel, first the rows and then the columns, in tiles
+	 */
+	private void buildFull(Source[] all, float[][] target) {
+		int layers = target.length;
+		if(this.sourceMap == null) {
+			int size = this.width * this.height;
+			this.sourceMap = new float[layers][size];
+			this.rows = new float[layers][size];
+			this.rowHasSource = new boolean[layers][this.height];
+		}
+		float[][] sourceMap = this.sourceMap;
+		float[][] rows = this.rows;
+		boolean[][] rowHasSource = this.rowHasSource;
+		for(Source source : all) {
+			sourceMap[2 * source.player][source.cell] += source.threat;
+			sourceMap[2 * source.player + 1][source.cell] += source.control;
+			rowHasSource[2 * source.player][source.cell / this.width] = true;
+			rowHasSource[2 * source.player + 1][source.cell / this.width] = true;
+		}
+
+		int tilesX = (this.width + TILE_SIZE - 1) / TILE_SIZE;
+		int tiles = tilesX * ((this.height + TILE_SIZE - 1) / TILE_SIZE);
+		this.pool.invoke(new TilePass(this, tilesX, 0, tiles, sourceMap, rows, rowHasSource, true));
+		this.pool.invoke(new TilePass(this, tilesX, 0, tiles, rows, target, rowHasSource, false));
+
+		// the row pass writes every cell of the rows, only the sources have to be cleared for the next build
+		for(Source source : all) {
+			sourceMap[2 * source.player][source.cell] = 0;
+			sourceMap[2 * source.player + 1][source.cell] = 0;
+		}
+		for(boolean[] layer : rowHasSource) Arrays.fill(layer, false);
+	}
+
+	/**
+	 * Copies the last maps and replaces the stamps of the changed entities
+	 */
+	private void buildIncremental(float[][] last, Source[] minus, Source[] plus, float[][] target) {
+		for(int layer = 0; layer < target.length; layer++) System.arraycopy(last[layer], 0, target[layer], 0, last[layer].length);
+		for(Source source : minus) this.stamp(target, source, -1);
+		for(Source source : plus) this.stamp(target, source, 1);
+	}
+
+	private void stamp(float[][] target, Source source, float sign) {
+		int x = source.cell % this.width;
+		int y = source.cell / this.width;
+		float[] threat = target[2 * source.player];
+		float[] control = target[2 * source.player + 1];
+		for(int dy = Math.max(-RADIUS, -y); dy <= Math.min(RADIUS, this.height - 1 - y); dy++) {
+			float row = sign * KERNEL[Math.abs(dy)];
+			int offset = (y + dy) * this.width;
+			for(int dx = Math.max(-RADIUS, -x); dx <= Math.min(RADIUS, this.width - 1 - x); dx++) {
+				float weight = row * KERNEL[Math.abs(dx)];
+				threat[offset + x + dx] += weight * source.threat;
+				control[offset + x + dx] += weight * source.control;
+			}
+		}
+	}
+
+	/**
+	 * Runs one pass of the convolution on a range of tiles, splitting it in halves until a single tile is left.
+	 * The row pass skips the rows without a source, they stay 0.
+	 */
+	private static class TilePass extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final InfluenceMap map;
+		private final int tilesX;
+		private final int from, to;
+		private final float[][] input;
+		private final float[][] output;
+		private final boolean[][] rowHasSource;
+		private final boolean horizontal;
+
+		TilePass(InfluenceMap map, int tilesX, int from, int to, float[][] input, float[][] output, boolean[][] rowHasSource, boolean horizontal) {
+			this.map = map;
+			this.tilesX = tilesX;
+			this.from = from;
+			this.to = to;
+			this.input = input;
+			this.output = output;
+			this.rowHasSource = rowHasSource;
+			this.horizontal = horizontal;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.to - this.from > 1) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new TilePass(this.map, this.tilesX, this.from, middle, this.input, this.output, this.rowHasSource, this.horizontal),
+						new TilePass(this.map, this.tilesX, middle, this.to, this.input, this.output, this.rowHasSource, this.horizontal));
+				return;
+			}
+
+			int width = this.map.width;
+			int height = this.map.height;
+			int minX = this.from % this.tilesX * TILE_SIZE;
+			int minY = this.from / this.tilesX * TILE_SIZE;
+			int maxX = Math.min(minX + TILE_SIZE, width);
+			int maxY = Math.min(minY + TILE_SIZE, height);
+			for(int layer = 0; layer < this.input.length; layer++) {
+				float[] in = this.input[layer];
+				float[] out = this.output[layer];
+				for(int y = minY; y < maxY; y++) {
+					int row = y * width;
+					if(this.horizontal && !this.rowHasSource[layer][y]) {
+						Arrays.fill(out, row + minX, row + maxX, 0);
+						continue;
+					}
+					for(int x = minX; x < maxX; x++) {
+						float sum = 0;
+						if(this.horizontal) {
+							for(int d = Math.max(-RADIUS, -x); d <= Math.min(RADIUS, width - 1 - x); d++) sum += in[row + x + d] * KERNEL[Math.abs(d)];
+						} else {
+							for(int d = Math.max(-RADIUS, -y); d <= Math.min(RADIUS, height - 1 - y); d++) sum += in[row + d * width + x] * KERNEL[Math.abs(d)];
+						}
+						out[row + x] = sum;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package llc.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import llc.entity.EntityWarrior;
+import llc.loading.GameLoader;
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+import llc.mapGenerator.RandomMapGenerator;
+import llc.pathfinding.AStarSearch;
+import llc.pathfinding.JumpPointSearch;
+import llc.pathfinding.PathSearchContext;
+import llc.pathfinding.RegionMap;
+import llc.pathfinding.SearchAlgorithm;
+import llc.util.PathFinder;
+
+/**
+ * Measures {@link PathFinder#findPath(Grid, Cell, Cell, SearchAlgorithm, PathSearchContext)} on the shipped maps
+ * and on generated maps. Every map is searched with short, long, blocked and unreachable queries and every
+ * {@link SearchAlgorithm}; the throughput, the allocated bytes and the expanded nodes per query are printed.
+ * The region map rejects blocked and unreachable queries before searching, so the blocked queries are measured a
+ * second time as "blocked-search" without that check: the search has to expand everything it can reach before
+ * it gives up, which is the baseline for searches that can't rely on the regions.
+ * Start with the sizes of the generated maps as arguments, e.g. <code>64 256 1024</code>.
+ */
+public class PathfindingBenchmark {
+
+	private static final String MAP_FOLDER = "res/maps/areas";
+	private static final int[] DEFAULT_SIZES = { 64, 256, 1024, 2048 };
+	private static final int SEED = 1234;
+
+	private static final int QUERIES = 64;
+	/** Every measurement runs the queries again and again for at least this long, after a warmup of the same length */
+	private static final long ITERATION_NANOS = 500000000L;
+	/** The maximum distance of short queries */
+	private static final int SHORT_DISTANCE = 8;
+	/** The number of targets walled in by entities for the blocked queries */
+	private static final int BLOCKED_TARGETS = 8;
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-22s %-14s %-11s %12s %12s %12s %12s", "map", "query", "algorithm", "ops/s", "us/op", "bytes/op", "nodes/op"));
+		GameLoader loader = new GameLoader();
+		File[] maps = new File(MAP_FOLDER).listFiles();
+		if (maps != null) {
+			for (File map : maps) {
+				if (map.getName().endsWith(".png")) run(map.getName(), loader.loadGrid(ImageIO.read(map), new ArrayList<Cell>()));
+			}
+		}
+		for (int size : sizes) {
+			run("generated-" + size, loader.loadGrid(RandomMapGenerator.generateMap(size, SEED), new ArrayList<Cell>()));
+		}
+	}
+
+	private static void run(String name, Grid grid) {
+		Random random = new Random(SEED);
+		List<Cell[]> shortQueries = new ArrayList<Cell[]>();
+		List<Cell[]> longQueries = new ArrayList<Cell[]>();
+		List<Cell[]> unreachableQueries = new ArrayList<Cell[]>();
+		RegionMap regions = grid.getRegions();
+		int longDistance = Math.max(grid.getWidth(), grid.getHeigth()) / 2;
+
+		for (int tries = 0; tries < QUERIES * 1000 && (shortQueries.size() < QUERIES || longQueries.size() < QUERIES || unreachableQueries.size() < QUERIES); tries++) {
+			Cell from = randomFreeCell(grid, random);
+			Cell to = randomFreeCell(grid, random);
+			if (from == null || to == null || from == to) continue;
+
+			int distance = Math.max(Math.abs(from.x - to.x), Math.abs(from.y - to.y));
+			boolean connected = regions.getRegion(from.x, from.y) == regions.getRegion(to.x, to.y);
+			if (!connected) {
+				if (unreachableQueries.size() < QUERIES) unreachableQueries.add(new Cell[] { from, to });
+			} else if (distance >= longDistance) {
+				if (longQueries.size() < QUERIES) longQueries.add(new Cell[] { from, to });
+			} else if (shortQueries.size() < QUERIES) {
+				// move the target close to the start
+				Cell near = grid.getCellAt(from.x + random.nextInt(2 * SHORT_DISTANCE + 1) - SHORT_DISTANCE, from.y + random.nextInt(2 * SHORT_DISTANCE + 1) - SHORT_DISTANCE);
+				if (near != null && near != from && isFree(near) && regions.getRegion(near.x, near.y) == regions.getRegion(from.x, from.y)) shortQueries.add(new Cell[] { from, near });
+			}
+		}
+
+		for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+			measure(name, "short", algorithm, grid, shortQueries, true);
+			measure(name, "long", algorithm, grid, longQueries, true);
+			measure(name, "unreachable", algorithm, grid, unreachableQueries, true);
+		}
+
+		// wall in a few targets with entities, searches towards them have to give up
+		List<Cell> walls = new ArrayList<Cell>();
+		List<Cell[]> blockedQueries = new ArrayList<Cell[]>();
+		for (int tries = 0; tries < QUERIES * 1000 && walls.size() < BLOCKED_TARGETS * 8; tries++) {
+			Cell target = randomFreeCell(grid, random);
+			if (target == null || !canWallIn(grid, target)) continue;
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dx == 0 && dy == 0) continue;
+					Cell wall = grid.getCellAt(target.x + dx, target.y + dy);
+					wall.setEntity(new EntityWarrior(wall.x, wall.y));
+					walls.add(wall);
+				}
+			}
+			for (int i = 0; i < QUERIES / BLOCKED_TARGETS; i++) {
+				Cell from = randomFreeCell(grid, random);
+				if (from != null && from != target && Math.max(Math.abs(from.x - target.x), Math.abs(from.y - target.y)) > 1) blockedQueries.add(new Cell[] { from, target });
+			}
+		}
+		for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+			measure(name, "blocked", algorithm, grid, blockedQueries, true);
+			measure(name, "blocked-search", algorithm, grid, blockedQueries, false);
+		}
+		for (Cell wall : walls) wall.setEntity(null);
+	}
+
+	/**
+	 * @param regionCheck if the queries go through the path finder, which rejects cells in different regions.
+	 *        Otherwise the search algorithm is called directly.
+	 */
+	private static void measure(String map, String query, SearchAlgorithm algorithm, Grid grid, List<Cell[]> queries, boolean regionCheck) {
+		if (queries.isEmpty()) return;
+		PathSearchContext context = new PathSearchContext();
+		long end = System.nanoTime() + ITERATION_NANOS;
+		while (System.nanoTime() < end) search(algorithm, grid, queries, context, regionCheck);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long nodes = 0;
+		long iterations = 0;
+		long bytes = threads.getThreadAllocatedBytes(threadId);
+		long time = System.nanoTime();
+		end = time + ITERATION_NANOS;
+		do {
+			nodes += search(algorithm, grid, queries, context, regionCheck);
+			iterations++;
+		} while (System.nanoTime() < end);
+		time = System.nanoTime() - time;
+		bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+
+		double ops = (double)queries.size() * iterations;
+		System.out.println(String.format(Locale.ROOT, "%-22s %-14s %-11s %12.1f %12.2f %12.0f %12.1f", map, query, algorithm, ops / (time / 1e9), time / 1e3 / ops, bytes / ops, nodes / ops));
+	}
+
+	/**
+	 * Runs all queries once
+	 * @return the number of expanded nodes
+	 */
+	private static long search(SearchAlgorithm algorithm, Grid grid, List<Cell[]> queries, PathSearchContext context, boolean regionCheck) {
+		long nodes = 0;
+		for (Cell[] query : queries) {
+			context.begin(0);
+			if (regionCheck) PathFinder.findPath(grid, query[0], query[1], algorithm, context);
+			else if (algorithm == SearchAlgorithm.JUMP_POINT) JumpPointSearch.findPath(grid, query[0], query[1], context);
+			else AStarSearch.findPath(grid, query[0], query[1], context);
+			nodes += context.getExpandedNodes();
+		}
+		return nodes;
+	}
+
+	private static Cell randomFreeCell(Grid grid, Random random) {
+		for (int i = 0; i < 100; i++) {
+			Cell cell = grid.getCellAt(random.nextInt(grid.getWidth()), random.nextInt(grid.getHeigth()));
+			if (isFree(cell)) return cell;
+		}
+		return null;
+	}
+
+	private static boolean isFree(Cell cell) {
+		return cell.getType() == CellType.WALKABLE && !cell.containsEntity();
+	}
+
+	/**
+	 * Checks if all neighbours of the cell are free, so a wall of entities can be built around it
+	 */
+	private static boolean canWallIn(Grid grid, Cell target) {
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				Cell cell = grid.getCellAt(target.x + dx, target.y + dy);
+				if (cell == null || !isFree(cell)) return false;
+			}
+		}
+		return true;
+	}
+}
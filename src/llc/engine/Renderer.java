@@ -30,6 +30,7 @@ import static org.lwjgl.opengl.GL11.glCallList;
 import static org.lwjgl.opengl.GL11.glClear;
 import static org.lwjgl.opengl.GL11.glClearColor;
 import static org.lwjgl.opengl.GL11.glColor3f;
+import static org.lwjgl.opengl.GL11.glDeleteLists;
 import static org.lwjgl.opengl.GL11.glDepthFunc;
 import static org.lwjgl.opengl.GL11.glDisable;
 import static org.lwjgl.opengl.GL11.glEnable;
@@ -84,6 +85,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import llc.engine.res.Model;
@@ -99,8 +101,13 @@ import llc.entity.EntityMovable;
 import llc.entity.EntityWarrior;
 import llc.entity.EntityWorker;
 import llc.logic.Cell;
+import llc.logic.EntityRegistry;
 import llc.logic.GameState;
-import llc.util.PathFinder;
+import llc.logic.Grid;
+import llc.logic.GridChanges;
+import llc.logic.GridStorage;
+import llc.logic.IGridChangeListener;
+import llc.pathfinding.PathfindingService;
 import llc.util.RenderUtil;
 
 import org.lwjgl.opengl.Display;
@@ -136,7 +143,19 @@ public class Renderer {
 	private int renderedTextureId;
 	private int viewportDimLoc;
 
-	private int gridListID = -1;
+	/** The width and height of the tiles of the grid in cells, every tile is drawn by its own display list */
+	private static final int GRID_TILE_SIZE = 32;
+	/** The display list of each tile or -1 if it has to be built */
+	private int[] gridListIDs;
+	private int gridTilesX;
+	/** The grid the geometry was built for */
+	private Grid grid;
+	private final IGridChangeListener gridChangeListener = new IGridChangeListener() {
+		@Override
+		public void onGridChanged(Grid grid, GridChanges changes) {
+			updateGridGeometry(grid, changes);
+		}
+	};
 	
 	private Program shaderProg;
 	private Program waterProg;
@@ -350,57 +369,116 @@ public class Renderer {
 		glActiveTexture(GL_TEXTURE0);
 	}
 	
+	/**
+	 * Builds the triangles of the grid of the game and the display lists drawing them. The renderer follows the changes of the grid from now on.
+	 */
 	public void generateGridGeometry(GameState state) {
-		int width = state.getGrid().getWidth();
-		int height = state.getGrid().getHeigth();
-		Cell[][] cells = state.getGrid().getCells();
+		Grid grid = state.getGrid();
+		if(this.grid != null) this.grid.removeChangeListener(this.gridChangeListener);
+		deleteGridLists();
+		
+		int width = grid.getWidth();
+		int height = grid.getHeigth();
+		GridStorage cells = grid.getStorage();
 		triangles = new Triangle[height][width][2];
+		float[][] heights = new float [3][3];
 		for(int y = 0; y < height; y++) {
 			for(int x = 0; x < width; x++) {
-				float currentHeight = cells[y][x].height;
-				float[][] heights = new float [3][3];
-				heights[0][0] = y > 0 && x > 0 ? cells[y - 1][x - 1].height : currentHeight;
-				heights[0][1] = y > 0 ? cells[y - 1][x].height : currentHeight;
-				heights[0][2] = y > 0 && x < width - 1 ? cells[y - 1][x + 1].height : currentHeight;
-				heights[1][0] = x > 0 ? cells[y][x - 1].height : currentHeight;
-				heights[1][1] = currentHeight;
-				heights[1][2] = x < width - 1 ? cells[y][x + 1].height : currentHeight;
-				heights[2][0] = y < height - 1 && x > 0 ? cells[y + 1][x - 1].height : currentHeight;
-				heights[2][1] = y < height - 1 ? cells[y + 1][x].height : currentHeight;
-				heights[2][2] = y < height -1 && x < width - 1 ? cells[y + 1][x + 1].height : currentHeight;
-				
-				float topRightHeight = (heights[0][1] + heights[0][2] + heights[1][1] + heights[1][2]) / 4f;
-				float topLeftHeight = (heights[0][0] + heights[0][1] + heights[1][0] + heights[1][1]) / 4f;
-				float bottomRightHeight = (heights[1][1] + heights[1][2] + heights[2][1] + heights[2][2]) / 4f;
-				float bottomLeftHeight = (heights[1][0] + heights[1][1] + heights[2][1] + heights[2][0]) / 4f;
-				
-				topRightHeight = topRightHeight * terrainScale;
-				topLeftHeight = topLeftHeight * terrainScale;
-				bottomRightHeight = bottomRightHeight * terrainScale;
-				bottomLeftHeight = bottomLeftHeight * terrainScale;
-				
-				Vector3f topLeft = new Vector3f(x, y,  topLeftHeight);
-				Vector3f topRight = new Vector3f(x + 1, y, topRightHeight);
-				Vector3f bottomLeft = new Vector3f(x, y + 1, bottomLeftHeight);
-				Vector3f bottomRight = new Vector3f(x + 1, y + 1, bottomRightHeight);
-				
-				Vector3f topLeftNormal = calcNormal(x, y, heights[0][0], heights[0][1], heights[1][0], heights[1][1]);
-				Vector3f topRightNormal = calcNormal(x + 1, y, heights[0][1], heights[0][2], heights[1][1], heights[1][2]);
-				Vector3f bottomLeftNormal = calcNormal(x, y + 1, heights[1][0], heights[1][1], heights[2][1], heights[2][0]);
-				Vector3f bottomRightNormal = calcNormal(x + 1, y + 1, heights[1][0], heights[1][1], heights[2][1], heights[2][0]);
-				
-				triangles[y][x][0] = new Triangle(
-						new Vertex(topLeft, topLeftNormal, new Vector2f(0, 1)),
-						new Vertex(topRight, topRightNormal, new Vector2f(1, 1)),
-						new Vertex(bottomLeft, bottomLeftNormal, new Vector2f(0, 0))
-				);
-				triangles[y][x][1] = new Triangle(
-						new Vertex(topRight, topRightNormal, new Vector2f(1, 1)),
-						new Vertex(bottomRight, bottomRightNormal, new Vector2f(1, 0)),
-						new Vertex(bottomLeft, bottomLeftNormal, new Vector2f(0, 0))
-				);
+				generateCellGeometry(cells, width, height, x, y, heights);
 			}
 		}
+		
+		this.gridTilesX = (width + GRID_TILE_SIZE - 1) / GRID_TILE_SIZE;
+		this.gridListIDs = new int[this.gridTilesX * ((height + GRID_TILE_SIZE - 1) / GRID_TILE_SIZE)];
+		Arrays.fill(this.gridListIDs, -1);
+		// the geometry is up to date, older changes don't concern the renderer
+		grid.publishChanges();
+		grid.addChangeListener(this.gridChangeListener);
+		this.grid = grid;
+	}
+	
+	/**
+	 * Rebuilds the triangles of the cells whose terrain changed and their neighbours, which share vertices with them,
+	 * and drops the display lists of the tiles containing them
+	 */
+	private void updateGridGeometry(Grid grid, GridChanges changes) {
+		int width = grid.getWidth();
+		int height = grid.getHeigth();
+		GridStorage cells = grid.getStorage();
+		float[][] heights = new float [3][3];
+		for(int r = 0; r < changes.getTerrainRectangleCount(); r++) {
+			int minX = Math.max(changes.getTerrainMinX(r) - 1, 0);
+			int minY = Math.max(changes.getTerrainMinY(r) - 1, 0);
+			int maxX = Math.min(changes.getTerrainMaxX(r) + 1, width - 1);
+			int maxY = Math.min(changes.getTerrainMaxY(r) + 1, height - 1);
+			for(int y = minY; y <= maxY; y++) {
+				for(int x = minX; x <= maxX; x++) {
+					generateCellGeometry(cells, width, height, x, y, heights);
+				}
+			}
+			for(int ty = minY / GRID_TILE_SIZE; ty <= maxY / GRID_TILE_SIZE; ty++) {
+				for(int tx = minX / GRID_TILE_SIZE; tx <= maxX / GRID_TILE_SIZE; tx++) {
+					int tile = ty * this.gridTilesX + tx;
+					if(this.gridListIDs[tile] != -1) glDeleteLists(this.gridListIDs[tile], 1);
+					this.gridListIDs[tile] = -1;
+				}
+			}
+		}
+	}
+	
+	private void deleteGridLists() {
+		if(this.gridListIDs == null) return;
+		for(int id : this.gridListIDs) if(id != -1) glDeleteLists(id, 1);
+		this.gridListIDs = null;
+	}
+	
+	/**
+	 * Builds the two triangles of a cell
+	 * @param heights a 3x3 array to work with
+	 */
+	private void generateCellGeometry(GridStorage cells, int width, int height, int x, int y, float[][] heights) {
+		int i = y * width + x;
+		float currentHeight = cells.getTerrainHeight(i);
+		heights[0][0] = y > 0 && x > 0 ? cells.getTerrainHeight(i - width - 1) : currentHeight;
+		heights[0][1] = y > 0 ? cells.getTerrainHeight(i - width) : currentHeight;
+		heights[0][2] = y > 0 && x < width - 1 ? cells.getTerrainHeight(i - width + 1) : currentHeight;
+		heights[1][0] = x > 0 ? cells.getTerrainHeight(i - 1) : currentHeight;
+		heights[1][1] = currentHeight;
+		heights[1][2] = x < width - 1 ? cells.getTerrainHeight(i + 1) : currentHeight;
+		heights[2][0] = y < height - 1 && x > 0 ? cells.getTerrainHeight(i + width - 1) : currentHeight;
+		heights[2][1] = y < height - 1 ? cells.getTerrainHeight(i + width) : currentHeight;
+		heights[2][2] = y < height -1 && x < width - 1 ? cells.getTerrainHeight(i + width + 1) : currentHeight;
+		
+		float topRightHeight = (heights[0][1] + heights[0][2] + heights[1][1] + heights[1][2]) / 4f;
+		float topLeftHeight = (heights[0][0] + heights[0][1] + heights[1][0] + heights[1][1]) / 4f;
+		float bottomRightHeight = (heights[1][1] + heights[1][2] + heights[2][1] + heights[2][2]) / 4f;
+		float bottomLeftHeight = (heights[1][0] + heights[1][1] + heights[2][1] + heights[2][0]) / 4f;
+		
+		topRightHeight = topRightHeight * terrainScale;
+		topLeftHeight = topLeftHeight * terrainScale;
+		bottomRightHeight = bottomRightHeight * terrainScale;
+		bottomLeftHeight = bottomLeftHeight * terrainScale;
+		
+		Vector3f topLeft = new Vector3f(x, y,  topLeftHeight);
+		Vector3f topRight = new Vector3f(x + 1, y, topRightHeight);
+		Vector3f bottomLeft = new Vector3f(x, y + 1, bottomLeftHeight);
+		Vector3f bottomRight = new Vector3f(x + 1, y + 1, bottomRightHeight);
+		
+		Vector3f topLeftNormal = calcNormal(x, y, heights[0][0], heights[0][1], heights[1][0], heights[1][1]);
+		Vector3f topRightNormal = calcNormal(x + 1, y, heights[0][1], heights[0][2], heights[1][1], heights[1][2]);
+		Vector3f bottomLeftNormal = calcNormal(x, y + 1, heights[1][0], heights[1][1], heights[2][1], heights[2][0]);
+		Vector3f bottomRightNormal = calcNormal(x + 1, y + 1, heights[1][0], heights[1][1], heights[2][1], heights[2][0]);
+		
+		triangles[y][x][0] = new Triangle(
+				new Vertex(topLeft, topLeftNormal, new Vector2f(0, 1)),
+				new Vertex(topRight, topRightNormal, new Vector2f(1, 1)),
+				new Vertex(bottomLeft, bottomLeftNormal, new Vector2f(0, 0))
+		);
+		triangles[y][x][1] = new Triangle(
+				new Vertex(topRight, topRightNormal, new Vector2f(1, 1)),
+				new Vertex(bottomRight, bottomRightNormal, new Vector2f(1, 0)),
+				new Vertex(bottomLeft, bottomLeftNormal, new Vector2f(0, 0))
+		);
 	}
 	
 	private void drawHoveredAndSelectedCells(GameState state) {
@@ -409,19 +487,28 @@ public class Renderer {
 		
 		if(state.hoveredCell != null) {
 			glColor3f(1, 0.5f, 0.5f);
-			drawCell(state.hoveredCell, state.hoveredCell.y, state.hoveredCell.x, false);
+			drawCell(state.hoveredCell.getHeight(), state.hoveredCell.y, state.hoveredCell.x, false);
 			
 			if(state.selectedCell != null && state.selectedCell.containsEntity() && state.selectedCell.getEntity() instanceof EntityMovable) {
-				if(((EntityMovable)state.selectedCell.getEntity()).isCellInRange(state.hoveredCell.x, state.hoveredCell.y)
+				EntityMovable entity = (EntityMovable)state.selectedCell.getEntity();
+				int range = (int)entity.getMoveRange();
+				if(entity.isCellInRange(state.hoveredCell.x, state.hoveredCell.y)
 						&& (!state.hoveredCell.containsEntity() || state.hoveredCell.getEntity().getPlayer() != state.activePlayer)) {
-					List<Cell> cells = PathFinder.findPath(state.getGrid(), state.selectedCell, state.hoveredCell);
-					if(cells != null) for(Cell cell : cells) this.drawCell(cell, cell.y, cell.x, false);
+					// the path is searched in the background, draw the last one that is finished
+					PathfindingService paths = state.getPathService();
+					paths.requestPreview(state.selectedCell, state.hoveredCell, range);
+					PathfindingService.Preview preview = paths.getPreview();
+					if(preview != null && preview.path != null && preview.matches(state.selectedCell, state.hoveredCell, range)) {
+						for(Cell cell : preview.path) this.drawCell(cell.getHeight(), cell.y, cell.x, false);
+					}
 				}
 			}
 		}
-		if(state.selectedCell != null) {
-			glColor3f(0.3f, 1f, 0.3f);
-			drawCell(state.selectedCell, state.selectedCell.y, state.selectedCell.x, false);
+		glColor3f(0.3f, 1f, 0.3f);
+		if(state.selectedCell != null) drawCell(state.selectedCell.getHeight(), state.selectedCell.y, state.selectedCell.x, false);
+		for(EntityMovable entity : state.selectedGroup) {
+			Cell cell = state.getGrid().getCellAt((int)entity.getX(), (int)entity.getY());
+			drawCell(cell.getHeight(), cell.y, cell.x, false);
 		}
 		
 		RenderUtil.unbindShader();
@@ -441,85 +528,82 @@ public class Renderer {
 	private void drawEntities(GameState state, int width, int height, int delta) {
 		this.shaderProg.bind();
 		
-		Cell[][] cells = state.getGrid().getCells();
+		EntityRegistry entities = state.getGrid().getEntities();
 		
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				Cell c = cells[y][x];
-				Entity e = c.getEntity();
-				
-				if(e != null) {
-					glPushMatrix();
-					e.update(delta);
-					
-					float f = -terrainScale;
-					for(Triangle triangle : this.triangles[(int)e.getY()][(int)e.getX()]) {
-						for(Vertex vert : triangle.vertices) {
-							f = Math.max(f, vert.position.z);
-						}
-					}
-					
-					if(e.posVec == null) glTranslatef(e.getX() + 0.5F, e.getY() + 0.5F, f);
-					else glTranslatef(e.posVec.x, e.posVec.y, f);
-					
-					RenderUtil.clearColor();
-					if(e instanceof EntityBuildingBase) {
-						bindModelTexture(baseModel);
-						glCallList(this.baseId);
-					} else if(e instanceof EntityWarrior) {
-						bindModelTexture(warriorModel);
-						glCallList(this.warriorId);
-					} else if(e instanceof EntityWorker) {
-						bindModelTexture(minerModel);
-						glCallList(this.minerId);
-					}
-					glPopMatrix();
-					
-					// Health Bar
-					GL11.glPushMatrix();
-					float barWidth = (float)e.maxHealth / 160F;
-					
-					if(e.posVec == null) GL11.glTranslatef(e.getX() - barWidth / 2 + 0.5F, e.getY() + 0.5F, f + 1.25F);
-					else GL11.glTranslatef(e.posVec.x - barWidth / 2, e.posVec.y, f + 1.25F);
-					
-					Color.black.bind();
-					RenderUtil.drawQuad(0, 0, barWidth, 0.1F);
-					
-					if(state.getActivePlayer() == e.getPlayer()) Color.green.bind();
-					else Color.red.bind();
-					RenderUtil.drawQuad(0, 0, e.health / 160F, 0.1F);
-					
-					GL11.glPopMatrix();
+		for (int i = 0; i < entities.size(); i++) {
+			Entity e = entities.getAt(i);
+			
+			glPushMatrix();
+			e.update(delta);
+			
+			float f = -terrainScale;
+			for(Triangle triangle : this.triangles[(int)e.getY()][(int)e.getX()]) {
+				for(Vertex vert : triangle.vertices) {
+					f = Math.max(f, vert.position.z);
 				}
 			}
+			
+			if(e.posVec == null) glTranslatef(e.getX() + 0.5F, e.getY() + 0.5F, f);
+			else glTranslatef(e.posVec.x, e.posVec.y, f);
+			
+			RenderUtil.clearColor();
+			if(e instanceof EntityBuildingBase) {
+				bindModelTexture(baseModel);
+				glCallList(this.baseId);
+			} else if(e instanceof EntityWarrior) {
+				bindModelTexture(warriorModel);
+				glCallList(this.warriorId);
+			} else if(e instanceof EntityWorker) {
+				bindModelTexture(minerModel);
+				glCallList(this.minerId);
+			}
+			glPopMatrix();
+			
+			// Health Bar
+			GL11.glPushMatrix();
+			float barWidth = (float)e.maxHealth / 160F;
+			
+			if(e.posVec == null) GL11.glTranslatef(e.getX() - barWidth / 2 + 0.5F, e.getY() + 0.5F, f + 1.25F);
+			else GL11.glTranslatef(e.posVec.x - barWidth / 2, e.posVec.y, f + 1.25F);
+			
+			Color.black.bind();
+			RenderUtil.drawQuad(0, 0, barWidth, 0.1F);
+			
+			if(state.getActivePlayer() == e.getPlayer()) Color.green.bind();
+			else Color.red.bind();
+			RenderUtil.drawQuad(0, 0, e.health / 160F, 0.1F);
+			
+			GL11.glPopMatrix();
 		}
 		
 		RenderUtil.unbindShader();
 	}
 
 	private void drawGrid(GameState state, int width, int height) {
-		if(this.gridListID == -1) {
-			this.gridListID = glGenLists(1);
-			glNewList(this.gridListID, GL_COMPILE_AND_EXECUTE);
-			this.shaderProg.bind();
-			
-			Cell[][] cells = state.getGrid().getCells();
-			for(int y = 0; y < height; y++) {
-				for(int x = 0; x < width; x++) {
-					Cell c = cells[y][x];
-					drawCell(c, y, x, true);
+		GridStorage cells = state.getGrid().getStorage();
+		for(int tile = 0; tile < this.gridListIDs.length; tile++) {
+			if(this.gridListIDs[tile] == -1) {
+				this.gridListIDs[tile] = glGenLists(1);
+				glNewList(this.gridListIDs[tile], GL_COMPILE_AND_EXECUTE);
+				this.shaderProg.bind();
+				
+				int minX = tile % this.gridTilesX * GRID_TILE_SIZE;
+				int minY = tile / this.gridTilesX * GRID_TILE_SIZE;
+				for(int y = minY; y < Math.min(minY + GRID_TILE_SIZE, height); y++) {
+					for(int x = minX; x < Math.min(minX + GRID_TILE_SIZE, width); x++) {
+						drawCell(cells.getTerrainHeight(y * width + x), y, x, true);
+					}
 				}
+				
+				RenderUtil.unbindShader();
+				glEndList();
+			} else {
+				GL11.glCallList(this.gridListIDs[tile]);
 			}
-			
-			RenderUtil.unbindShader();
-			glEndList();
-		} else {
-			GL11.glCallList(this.gridListID);
 		}
 	}
 
-	private void drawCell(Cell c, int y, int x, boolean allowColor) {
-		float h = c.getHeight();
+	private void drawCell(float h, int y, int x, boolean allowColor) {
 		
 		// Render terrain texture
 		if(h < -sandRegion) waterTexture.bind();
@@ -625,6 +709,13 @@ public class Renderer {
 		else return upperColor.color;
 	}
 
+	/**
+	 * Gets the grid the geometry was built for
+	 */
+	public Grid getGrid() {
+		return this.grid;
+	}
+	
 	public Triangle[][][] getGridGeometry() {
 		return this.triangles;
 	}
@@ -1,12 +1,14 @@
 package llc.entity;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import llc.logic.Cell;
+import llc.logic.Grid;
 import llc.logic.Logic;
 import llc.logic.Player;
+import llc.pathfinding.DStarLitePlanner;
+import llc.pathfinding.PathSmoother;
 import llc.util.MathUtil;
 
 import org.lwjgl.util.vector.Vector3f;
@@ -20,6 +22,11 @@ import de.teamdna.databundle.DataBundle;
  */
 public abstract class Entity {
 	
+	/** The time in milliseconds an entity waits on a cell that appears twice in a row in its path */
+	public static final int WAIT_TIME = 250;
+	/** The distance in cells an entity sees by default */
+	public static final int SIGHT_RANGE = 8;
+	
 	public int health;
 	public int maxHealth;
 	
@@ -31,11 +38,18 @@ public abstract class Entity {
 	// Variables for move animation
 	public Vector3f posVec;
 	private Logic logic;
-	private List<Vector3f> path = new ArrayList<Vector3f>();
+	/** The cells to walk to as indices (y * width + x) */
+	private int[] waypoints;
 	private int currentPos;
+	/** The center of the cell the current segment starts at */
+	private float segmentX, segmentY;
+	/** The cell of the current segment the entity walks to and the number of cells of the segment */
+	private int step, steps;
 	private int origX, origY;
 	private boolean countLastMove;
 	private boolean shouldReturn;
+	private DStarLitePlanner planner;
+	private int waitTime;
 	
 	/**
 	 * @return cost to pay for an Entity of this type
@@ -117,49 +131,147 @@ public abstract class Entity {
 	}
 	
 	/**
-	 * Starts the move animation
+	 * Starts the move animation, the path is planned again if another entity blocks it
 	 */
 	public void initMoveRoutine(Logic logic, List<Cell> path, boolean countMove, boolean shouldReturn) {
+		this.initMoveRoutine(logic, path, countMove, shouldReturn, true);
+	}
+
+	/**
+	 * Starts the move animation
+	 * @param replan if the path is planned again when another entity blocks it. Paths planned together with other
+	 *        entities must be followed as they are, their waits keep the entities apart.
+	 */
+	public void initMoveRoutine(Logic logic, List<Cell> path, boolean countMove, boolean shouldReturn, boolean replan) {
 		if(path == null) return;
 		
 		this.logic = logic;
-		this.posVec = new Vector3f(this.x, this.y, 0);
+		if(this.posVec == null) this.posVec = new Vector3f();
+		this.posVec.set((int)this.x + 0.5F, (int)this.y + 0.5F, 0);
 		
-		this.path.clear();
-		for(Cell cell : path) this.path.add(cell.getCenterPos());
+		Grid grid = logic.getGameState().getGrid();
+		this.waypoints = PathSmoother.smooth(grid, grid.getCellAt((int)this.x, (int)this.y), path);
 		
 		this.currentPos = 0;
+		this.waitTime = 0;
+		this.startSegment(grid.getWidth());
 		this.origX = (int)this.x;
 		this.origY = (int)this.y;
 		this.countLastMove = countMove;
 		this.shouldReturn = shouldReturn;
+		
+		this.disposePlanner();
+		if(replan && !path.isEmpty()) this.planner = new DStarLitePlanner(logic.getGameState().getGrid(), this, path.get(path.size() - 1), path);
 	}
 	
 	/**
 	 * Updates the entity
 	 */
 	public void update(int delta) {
-		if(this.logic == null || this.path == null) return;
+		if(this.logic == null || this.waypoints == null) return;
+		if(this.waitTime > 0) {
+			this.waitTime -= delta;
+			return;
+		}
 		
-		if(MathUtil.areEquals(this.posVec, this.path.get(this.currentPos), 0.1F)) {
-			this.currentPos++;
-			if(this.currentPos >= this.path.size()) {
-				if(this.shouldReturn) {
-					this.shouldReturn = false;
-					Collections.reverse(this.path);
-					this.path.add(new Vector3f(this.origX + 0.5F, this.origY + 0.5F, 0));
-					this.currentPos = 0;
-				} else {
-					this.logic.finishEntityMove(this.origX, this.origY, this.countLastMove, this);
-					this.logic = null;
-					return;
-				}
+		// a segment is walked cell by cell, every cell takes as long as a step of the path did before smoothing
+		int width = this.logic.getGameState().getGrid().getWidth();
+		Vector3f target = this.getStepTarget(width);
+		if(MathUtil.areEquals(this.posVec, target, 0.1F)) {
+			if(this.step < this.steps) {
+				this.step++;
+			} else {
+				this.nextWaypoint();
+				if(this.logic == null || this.waitTime > 0) return;
 			}
+			target = this.getStepTarget(width);
 		}
 		
-		this.posVec = MathUtil.minVector3f(MathUtil.lerpVector(this.posVec, this.path.get(this.currentPos), (float)delta / 100F), this.path.get(this.currentPos));
-		this.x = (int)this.posVec.x;
-		this.y = (int)this.posVec.y;
+		this.posVec = MathUtil.lerpVector(this.posVec, target, (float)delta / 100F);
+	}
+	
+	/**
+	 * Gets the center of the cell of the current segment the entity walks to
+	 */
+	private Vector3f getStepTarget(int width) {
+		int target = this.waypoints[this.currentPos];
+		float part = (float)this.step / this.steps;
+		return new Vector3f(this.segmentX + (target % width + 0.5F - this.segmentX) * part, this.segmentY + (target / width + 0.5F - this.segmentY) * part, 0);
+	}
+	
+	/**
+	 * Starts the segment from the cell the entity stands on to the current waypoint
+	 */
+	private void startSegment(int width) {
+		this.segmentX = (int)this.x + 0.5F;
+		this.segmentY = (int)this.y + 0.5F;
+		int target = this.waypoints[this.currentPos];
+		this.steps = Math.max(1, Math.max(Math.abs(target % width - (int)this.x), Math.abs(target / width - (int)this.y)));
+		this.step = 1;
+	}
+	
+	/**
+	 * Continues with the next waypoint after one was reached
+	 */
+	private void nextWaypoint() {
+		// the entity stands on the reached cell now, the grid is updated when the move is finished
+		Grid grid = this.logic.getGameState().getGrid();
+		int width = grid.getWidth();
+		this.x = this.waypoints[this.currentPos] % width;
+		this.y = this.waypoints[this.currentPos] / width;
+		this.currentPos++;
+		if(this.planner != null) this.planner.reached(grid.getCellAt((int)this.x, (int)this.y));
+		if(this.planner != null && this.currentPos < this.waypoints.length && this.planner.needsReplan()) this.replan();
+		if(this.currentPos < this.waypoints.length) this.startSegment(width);
+		if(this.currentPos < this.waypoints.length && this.waypoints[this.currentPos] == this.waypoints[this.currentPos - 1]) {
+			// the path waits on this cell for another unit to pass
+			this.waitTime = WAIT_TIME;
+		}
+		if(this.currentPos >= this.waypoints.length) {
+			this.disposePlanner();
+			if(this.shouldReturn) {
+				this.shouldReturn = false;
+				int length = this.waypoints.length;
+				int[] back = new int[length + 1];
+				for(int i = 0; i < length; i++) back[i] = this.waypoints[length - 1 - i];
+				back[length] = this.origY * width + this.origX;
+				this.waypoints = back;
+				this.currentPos = 0;
+				this.startSegment(width);
+			} else {
+				assert (int)this.y * width + (int)this.x == this.waypoints[this.waypoints.length - 1] : "entity isn't on the destination of its move";
+				this.logic.finishEntityMove(this.origX, this.origY, this.countLastMove, this);
+				this.logic = null;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the rest of the path with a new one from the reached waypoint.
+	 * If the destination can't be reached anymore, the move ends here.
+	 */
+	private void replan() {
+		Grid grid = this.logic.getGameState().getGrid();
+		Cell cell = grid.getCellAt((int)this.posVec.x, (int)this.posVec.y);
+		List<Cell> rest = this.planner.replan(cell);
+		int[] smoothed = rest == null ? new int[0] : PathSmoother.smooth(grid, cell, rest);
+		int[] waypoints = Arrays.copyOf(this.waypoints, this.currentPos + smoothed.length);
+		System.arraycopy(smoothed, 0, waypoints, this.currentPos, smoothed.length);
+		this.waypoints = waypoints;
+	}
+	
+	private void disposePlanner() {
+		if(this.planner != null) {
+			this.planner.dispose();
+			this.planner = null;
+		}
+	}
+
+	/**
+	 * Gets the distance in cells the entity sees around itself
+	 */
+	public int getSightRange() {
+		return SIGHT_RANGE;
 	}
 
 	/**
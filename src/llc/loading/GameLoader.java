@@ -5,14 +5,18 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import javax.imageio.ImageIO;
 
 import llc.entity.EntityBuildingBase;
 import llc.logic.Cell;
+import llc.logic.ChunkedGridStorage;
 import llc.logic.GameState;
 import llc.logic.Grid;
+import llc.logic.MappedGridStorage;
+import llc.logic.TerrainSource;
 import de.teamdna.databundle.DataBundle;
 import de.teamdna.databundle.ISavable;
 
@@ -22,6 +26,19 @@ import de.teamdna.databundle.ISavable;
  */
 public class GameLoader {
 
+	/** Maps with at least this many cells are kept in a {@link ChunkedGridStorage} */
+	public static final int CHUNKED_MIN_CELLS = 1024 * 1024;
+	/** Maps with at least this many cells are turned into a world file beside the image once and mapped from then on */
+	public static final int MAPPED_MIN_CELLS = 4096 * 4096;
+	/** The file extension of world files, see {@link MappedGridStorage} */
+	public static final String WORLD_EXTENSION = ".world";
+	
+	/** The heights of the 256 levels of a color channel */
+	private static final float[] LEVEL_HEIGHTS = new float[256];
+	static {
+		for (int level = 0; level < LEVEL_HEIGHTS.length; level++) LEVEL_HEIGHTS[level] = (((float)level)/255f)*2-1;
+	}
+
 	/**
 	 * Creates a new GameLoader, make sure to only do this once!(Performance...)
 	 */
@@ -55,38 +72,15 @@ public class GameLoader {
 		return new GameState(data, this);
 	}
 	
+	/**
+	 * Starts a new game on a map image or a world file
+	 */
 	public GameState createNewGame(String mapLoc) {
 		GameState state = null;
 		File map = new File(mapLoc);
 		try {
-			BufferedImage img = ImageIO.read(map);
-			
-			int height, width;
-			height = img.getHeight();
-			width = img.getWidth();
-			Grid g = new Grid(height, width);
-			Color c;
-			Cell cell;
 			List<Cell> bases = new ArrayList<Cell>();
-			
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					c = new Color(img.getRGB(x, height-y-1));
-					//Check for base-cells
-					if (c.getBlue() == 0 && c.getGreen() == 0 && c.getRed() > 0) {
-						cell = new Cell(x, y, getHeight(c));
-						cell.setEntity(new EntityBuildingBase(x, y));
-						bases.add(cell);
-					}
-					else {
-						//Normal cell
-						cell = new Cell(x, y, getHeight(c));
-					}
-					g.setCellAt(cell, x, y);
-				}
-			}
-
-			state = new GameState(g, map, bases);
+			state = new GameState(loadMap(map, bases), map, bases);
 		}
 		catch (Exception e) {
 			System.err.println("Konnte neues Spiel nicht laden ;(");
@@ -94,21 +88,180 @@ public class GameLoader {
 		}
 		return state;
 	}
-	private float getHeight(Color c) {
-		if (c.getBlue() == c.getGreen() && c.getRed() == c.getBlue()) {
+	
+	/**
+	 * Loads the grid of a map image or a world file. Huge images are turned into a world file beside them
+	 * on the first load, it is opened instead of the image as long as it is newer than the image.
+	 * @param bases the list the cells containing a base are added to
+	 */
+	private Grid loadMap(File map, List<Cell> bases) throws IOException {
+		if (map.getName().endsWith(WORLD_EXTENSION)) return openWorld(map, bases);
+		
+		File world = getWorldFile(map);
+		if (world.isFile() && world.lastModified() >= map.lastModified()) return openWorld(world, bases);
+		BufferedImage img = ImageIO.read(map);
+		if ((long) img.getWidth() * img.getHeight() >= MAPPED_MIN_CELLS) return createWorld(img, world, bases);
+		return loadGrid(img, bases);
+	}
+	
+	/**
+	 * Gets the world file a map image is turned into
+	 */
+	public static File getWorldFile(File map) {
+		String name = map.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(map.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + WORLD_EXTENSION);
+	}
+	
+	/**
+	 * Builds the grid of a map image without starting a game
+	 * @param bases the list the cells containing a base are added to
+	 */
+	public Grid loadGrid(BufferedImage img, List<Cell> bases) {
+		int height, width;
+		height = img.getHeight();
+		width = img.getWidth();
+		Grid g;
+		if (width * height >= CHUNKED_MIN_CELLS) {
+			// the packed levels of the image are the terrain source, chunks are only built where the game changes something
+			g = new Grid(height, width, new ChunkedGridStorage(width, height, getTerrain(img)));
+		} else {
+			g = new Grid(height, width);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					g.setTerrain(x, y, getHeight(img.getRGB(x, height-y-1)));
+				}
+			}
+		}
+		addBases(g, findBases(img), bases);
+		g.computeRegions();
+		return g;
+	}
+	
+	/**
+	 * Builds the grid of a map image in a new world file, see {@link MappedGridStorage}
+	 * @param file the world file, replaced if it exists
+	 * @param bases the list the cells containing a base are added to
+	 */
+	public Grid createWorld(BufferedImage img, File file, List<Cell> bases) throws IOException {
+		int height = img.getHeight();
+		int width = img.getWidth();
+		int[] baseCells = findBases(img);
+		Grid g = new Grid(height, width, MappedGridStorage.create(file, width, height, getTerrain(img), baseCells));
+		addBases(g, baseCells, bases);
+		g.computeRegions();
+		return g;
+	}
+	
+	/**
+	 * Opens the grid of a world file with the bases it was created with. Mapping the file doesn't read it, but the
+	 * grid still visits every cell once to build its neighbour masks and regions.
+	 * @param bases the list the cells containing a base are added to
+	 */
+	public Grid openWorld(File file, List<Cell> bases) throws IOException {
+		MappedGridStorage storage = MappedGridStorage.open(file);
+		Grid g = new Grid(storage.getHeight(), storage.getWidth(), storage);
+		addBases(g, storage.getBases(), bases);
+		g.computeRegions();
+		return g;
+	}
+	
+	private void addBases(Grid g, int[] baseCells, List<Cell> bases) {
+		for (int index : baseCells) {
+			int x = index % g.getWidth();
+			int y = index / g.getWidth();
+			Cell cell = g.getCellAt(x, y);
+			cell.setEntity(new EntityBuildingBase(x, y));
+			bases.add(cell);
+		}
+	}
+	
+	/**
+	 * Gets the indices of the base cells of a map image
+	 */
+	private static int[] findBases(BufferedImage img) {
+		int height = img.getHeight();
+		int width = img.getWidth();
+		List<Integer> found = new ArrayList<Integer>();
+		Color c;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				c = new Color(img.getRGB(x, height-y-1));
+				//Check for base-cells
+				if (c.getBlue() == 0 && c.getGreen() == 0 && c.getRed() > 0) found.add(y * width + x);
+			}
+		}
+		int[] bases = new int[found.size()];
+		for (int i = 0; i < bases.length; i++) bases[i] = found.get(i);
+		return bases;
+	}
+	
+	/**
+	 * Gets the terrain of a map image, the image is flipped so that y grows upwards.
+	 * The heights are packed into one level byte per cell, the image isn't needed afterwards.
+	 */
+	private static TerrainSource getTerrain(BufferedImage img) {
+		return new PackedTerrain(img);
+	}
+	
+	private static float getHeight(int rgb) {
+		int level = getLevel(rgb);
+		return level < 0 ? 0 : LEVEL_HEIGHTS[level];
+	}
+	
+	/**
+	 * Gets the color channel the height of a pixel is stored in
+	 * @return the level between 0 and 255 or -1 if the pixel has no height
+	 */
+	private static int getLevel(int rgb) {
+		int red = (rgb >> 16) & 0xFF;
+		int green = (rgb >> 8) & 0xFF;
+		int blue = rgb & 0xFF;
+		if (blue == green && red == blue) {
 			//Normal cell!
-			return (((float)c.getBlue())/255f)*2-1;
+			return blue;
 		}
-		if (c.getBlue() == 0 && c.getRed() == 0) {
+		if (blue == 0 && red == 0) {
 			//Base of player 1!
-			return (((float)c.getGreen())/255f)*2-1;
+			return green;
 		}
-		if (c.getBlue() == 0 && c.getGreen() == 0) {
+		if (blue == 0 && green == 0) {
 			//Base of player 2!
-			return (((float)c.getRed())/255f)*2-1;
+			return red;
 		}
 		else {
-			return 0;
+			return -1;
+		}
+	}
+	
+	/**
+	 * The heights of a map image as one level byte per cell, pixels without a height are marked in a bitset
+	 */
+	private static class PackedTerrain implements TerrainSource {
+		
+		private final int width;
+		private final byte[] levels;
+		private final BitSet flat = new BitSet();
+		
+		PackedTerrain(BufferedImage img) {
+			int height = img.getHeight();
+			this.width = img.getWidth();
+			this.levels = new byte[this.width * height];
+			int[] row = new int[this.width];
+			for (int y = 0; y < height; y++) {
+				img.getRGB(0, height-y-1, this.width, 1, row, 0, this.width);
+				for (int x = 0; x < this.width; x++) {
+					int level = getLevel(row[x]);
+					if (level < 0) flat.set(y * this.width + x);
+					else levels[y * this.width + x] = (byte) level;
+				}
+			}
+		}
+		
+		@Override
+		public float getTerrainHeight(int x, int y) {
+			int index = y * width + x;
+			return flat.get(index) ? 0 : LEVEL_HEIGHTS[levels[index] & 0xFF];
 		}
 	}
 	
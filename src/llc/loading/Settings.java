@@ -49,6 +49,15 @@ public class Settings {
 	public boolean getSelectEntityOnBuy() {
 		return Boolean.parseBoolean(settings.get("selectEntityOnBuy"));
 	}
+	/**
+	 * Should the pathfinding metrics be written into a file at the end of every game
+	 */
+	public void setDumpPathMetrics(boolean dump) {
+		settings.put("dumpPathMetrics", Boolean.toString(dump));
+	}
+	public boolean getDumpPathMetrics() {
+		return Boolean.parseBoolean(settings.get("dumpPathMetrics"));
+	}
 	public void set(String key, String value) {
 		settings.put(key, value);
 	}
@@ -0,0 +1,103 @@
+package llc.logic;
+
+import java.util.Arrays;
+
+import llc.entity.Entity;
+
+/**
+ * Stores every property of the cells in its own flat primitive array: heights in a float[], types in a byte[]
+ * and the occupancy as entity ids in an int[]. Walking over one property of many cells reads contiguous memory.
+ * The ids are given away by an {@link EntityTable}.
+ */
+public class ArrayGridStorage implements GridStorage {
+
+	/** The id of an empty cell */
+	public static final int NO_ENTITY = EntityTable.NO_ENTITY;
+
+	private static final CellType[] TYPES = CellType.values();
+
+	private final float[] heights;
+	private final byte[] types;
+	private final int[] occupants;
+
+	private final EntityTable entities = new EntityTable();
+
+	/**
+	 * Creates a storage of walkable cells with height 0
+	 */
+	public ArrayGridStorage(int size) {
+		this.heights = new float[size];
+		this.types = new byte[size];
+		this.occupants = new int[size];
+		Arrays.fill(this.types, (byte)CellType.WALKABLE.ordinal());
+	}
+
+	@Override
+	public int getSize() {
+		return this.heights.length;
+	}
+
+	@Override
+	public float getTerrainHeight(int index) {
+		return this.heights[index];
+	}
+
+	@Override
+	public void setTerrainHeight(int index, float height) {
+		this.heights[index] = height;
+	}
+
+	@Override
+	public CellType getType(int index) {
+		return TYPES[this.types[index]];
+	}
+
+	@Override
+	public void setType(int index, CellType type) {
+		this.types[index] = (byte)type.ordinal();
+	}
+
+	@Override
+	public Entity getEntity(int index) {
+		return this.entities.get(this.occupants[index]);
+	}
+
+	@Override
+	public void setEntity(int index, Entity entity) {
+		this.entities.release(this.occupants[index]);
+		this.occupants[index] = entity == null ? NO_ENTITY : this.entities.acquire(entity);
+	}
+
+	@Override
+	public boolean containsEntity(int index) {
+		return this.occupants[index] != NO_ENTITY;
+	}
+
+	/**
+	 * Does nothing, the arrays always cover the whole grid
+	 */
+	@Override
+	public void trim() {
+	}
+
+	/**
+	 * Does nothing, the arrays are on the heap
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Gets the id of the entity on the cell or {@link #NO_ENTITY}
+	 */
+	public int getEntityId(int index) {
+		return this.occupants[index];
+	}
+
+	/**
+	 * Gets the entity with the id or null if no entity has it
+	 */
+	public Entity getEntityById(int id) {
+		return this.entities.get(id);
+	}
+}
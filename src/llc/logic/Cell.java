@@ -6,36 +6,23 @@ import org.lwjgl.util.vector.Vector3f;
 
 /**
  * The cell class. Contains the entity and can be solid or walkable.
+ * A cell is a view on one index of the {@link GridStorage} of its grid, the grid hands out one cell object per
+ * position, so cells can be compared with ==.
  * @author MaxiHoeve14
  */
 public class Cell {
 	
-	private Entity entity;
-	private CellType type;
-	
-	public Cell pathfOriginCell;
-	public int pathfFValue;
-	public int counter;
+	/** The grid this cell belongs to, notified about changes */
+	private final Grid grid;
+	private final int index;
 	
 	public final int x,y;
-	public final float height;
 	
-	/**
-	 * Constructor
-	 * @param x
-	 * @param y
-	 * @param height between 1 and -1
-	 */
-	public Cell(int x, int y, float height) {
+	Cell(Grid grid, int x, int y) {
+		this.grid = grid;
 		this.x = x;
 		this.y = y;
-		this.height = height;
-		if (height < 0) {
-			type = CellType.SOLID;
-		}
-		if (height >= 0) {
-			type = CellType.WALKABLE;
-		}
+		this.index = y * grid.getWidth() + x;
 	}
 	
 	/**
@@ -43,7 +30,7 @@ public class Cell {
 	 * @return If there is an entity on the cell.
 	 */
 	public boolean containsEntity() {
-		return entity != null;
+		return grid.getStorage().containsEntity(index);
 	}
 	
 	/**
@@ -51,7 +38,7 @@ public class Cell {
 	 * @return	the cell's entity
 	 */
 	public Entity getEntity() {
-		return entity;
+		return grid.getStorage().getEntity(index);
 	}
 	
 	/**
@@ -59,7 +46,10 @@ public class Cell {
 	 * @param {@link Entity} to set
 	 */
 	public void setEntity(Entity entity) {
-		this.entity = entity;
+		Entity oldEntity = getEntity();
+		if(oldEntity == entity) return;
+		grid.getStorage().setEntity(index, entity);
+		grid.onOccupancyChanged(this, oldEntity, entity);
 	}
 	
 	/**
@@ -67,7 +57,7 @@ public class Cell {
 	 * @return The entity
 	 */
 	public CellType getType() {
-		return type;
+		return grid.getStorage().getType(index);
 	}
 	
 	/**
@@ -76,16 +66,28 @@ public class Cell {
 	 */
 	@Deprecated
 	public void setType(CellType type) {
-		this.type = type;
+		grid.getStorage().setType(index, type);
+		grid.onTypeChanged(this);
 	}
+	
+	/**
+	 * Gets the terrain height between 1 and -1
+	 */
 	public float getHeight() {
-		return height;
+		return grid.getStorage().getTerrainHeight(index);
+	}
+
+	/**
+	 * Gets the index of the cell in the grid (y * width + x)
+	 */
+	public int getIndex() {
+		return index;
 	}
 
 	/**
 	 * Returns the center point of the cell
 	 */
 	public Vector3f getCenterPos() {
-		return new Vector3f(this.x + 0.5F, this.y + 0.5F, this.height);
+		return new Vector3f(this.x + 0.5F, this.y + 0.5F, this.getHeight());
 	}
 }
@@ -0,0 +1,15 @@
+package llc.logic;
+
+/**
+ * Selects cells in the queries of {@link OccupancyBits}. The player the filters refer to is given with the query.
+ */
+public enum CellFilter {
+	/** Walkable cells without an entity */
+	FREE,
+	/** Cells with an entity */
+	OCCUPIED,
+	/** Cells with an entity of the player */
+	OWN,
+	/** Cells with an entity that doesn't belong to the player */
+	ENEMY
+}
@@ -0,0 +1,181 @@
+package llc.logic;
+
+import llc.entity.Entity;
+
+/**
+ * Stores the cells in square chunks that are only allocated when a cell of the chunk is changed.
+ * Untouched chunks are left in their compact form: their heights and types are read from the {@link TerrainSource}
+ * and they can't contain entities. {@link #trim()} drops chunks that got back into that state, so the heights,
+ * types and entities held here grow with the area the players have been in instead of the size of the map.
+ * The compact form is only as small as the source, e.g. one byte per cell for a map image.
+ * <p>
+ * The {@link Grid} still keeps a few dense bytes per cell of its own: the neighbour masks, the occupancy bits
+ * and the labels of the {@link llc.pathfinding.RegionMap}.
+ */
+public class ChunkedGridStorage implements GridStorage {
+
+	public static final int CHUNK_SHIFT = 6;
+	/** The width and height of a chunk in cells */
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final CellType[] TYPES = CellType.values();
+
+	private final int width;
+	private final int height;
+	private final int chunksX;
+	private final TerrainSource source;
+	/** The materialized chunks, null for the compact ones */
+	private final Chunk[] chunks;
+	private int materialized;
+
+	private static class Chunk {
+		final float[] heights = new float[CHUNK_SIZE * CHUNK_SIZE];
+		final byte[] types = new byte[CHUNK_SIZE * CHUNK_SIZE];
+		final Entity[] entities = new Entity[CHUNK_SIZE * CHUNK_SIZE];
+		int entityCount;
+		/** Set once the terrain of a cell was changed, the chunk has to be kept then */
+		boolean edited;
+	}
+
+	public ChunkedGridStorage(int width, int height, TerrainSource source) {
+		this.width = width;
+		this.height = height;
+		this.source = source;
+		this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+		this.chunks = new Chunk[this.chunksX * ((height + CHUNK_MASK) >> CHUNK_SHIFT)];
+	}
+
+	@Override
+	public int getSize() {
+		return this.width * this.height;
+	}
+
+	@Override
+	public float getTerrainHeight(int index) {
+		Chunk chunk = this.chunks[this.chunkOf(index)];
+		if(chunk == null) return this.source.getTerrainHeight(index % this.width, index / this.width);
+		return chunk.heights[this.offsetOf(index)];
+	}
+
+	@Override
+	public void setTerrainHeight(int index, float height) {
+		Chunk chunk = this.materialize(this.chunkOf(index));
+		chunk.heights[this.offsetOf(index)] = height;
+		chunk.edited = true;
+	}
+
+	@Override
+	public CellType getType(int index) {
+		Chunk chunk = this.chunks[this.chunkOf(index)];
+		if(chunk == null) return this.sourceType(index % this.width, index / this.width);
+		return TYPES[chunk.types[this.offsetOf(index)]];
+	}
+
+	@Override
+	public void setType(int index, CellType type) {
+		Chunk chunk = this.materialize(this.chunkOf(index));
+		chunk.types[this.offsetOf(index)] = (byte)type.ordinal();
+		chunk.edited = true;
+	}
+
+	@Override
+	public Entity getEntity(int index) {
+		Chunk chunk = this.chunks[this.chunkOf(index)];
+		return chunk == null ? null : chunk.entities[this.offsetOf(index)];
+	}
+
+	@Override
+	public void setEntity(int index, Entity entity) {
+		int chunkIndex = this.chunkOf(index);
+		Chunk chunk = this.chunks[chunkIndex];
+		if(chunk == null) {
+			if(entity == null) return;
+			chunk = this.materialize(chunkIndex);
+		}
+		int offset = this.offsetOf(index);
+		if(chunk.entities[offset] != null) chunk.entityCount--;
+		if(entity != null) chunk.entityCount++;
+		chunk.entities[offset] = entity;
+	}
+
+	@Override
+	public boolean containsEntity(int index) {
+		return this.getEntity(index) != null;
+	}
+
+	/**
+	 * Drops the chunks that contain no entity and whose terrain was never changed, they are read from the
+	 * terrain source again. The cells of the grid stay valid.
+	 */
+	@Override
+	public void trim() {
+		for(int i = 0; i < this.chunks.length; i++) {
+			Chunk chunk = this.chunks[i];
+			if(chunk != null && chunk.entityCount == 0 && !chunk.edited) {
+				this.chunks[i] = null;
+				this.materialized--;
+			}
+		}
+	}
+
+	/**
+	 * Does nothing, the chunks are on the heap
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Gets the number of chunks currently held in memory
+	 */
+	public int getMaterializedChunks() {
+		return this.materialized;
+	}
+
+	public int getChunkCount() {
+		return this.chunks.length;
+	}
+
+	private Chunk materialize(int chunkIndex) {
+		Chunk chunk = this.chunks[chunkIndex];
+		if(chunk != null) return chunk;
+
+		chunk = new Chunk();
+		int originX = (chunkIndex % this.chunksX) << CHUNK_SHIFT;
+		int originY = (chunkIndex / this.chunksX) << CHUNK_SHIFT;
+		int endX = Math.min(originX + CHUNK_SIZE, this.width);
+		int endY = Math.min(originY + CHUNK_SIZE, this.height);
+		for(int y = originY; y < endY; y++) {
+			for(int x = originX; x < endX; x++) {
+				int offset = ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+				float height = this.source.getTerrainHeight(x, y);
+				chunk.heights[offset] = height;
+				chunk.types[offset] = (byte)typeOf(height).ordinal();
+			}
+		}
+		this.chunks[chunkIndex] = chunk;
+		this.materialized++;
+		return chunk;
+	}
+
+	private CellType sourceType(int x, int y) {
+		return typeOf(this.source.getTerrainHeight(x, y));
+	}
+
+	private static CellType typeOf(float height) {
+		return height < 0 ? CellType.SOLID : CellType.WALKABLE;
+	}
+
+	private int chunkOf(int index) {
+		int x = index % this.width;
+		int y = index / this.width;
+		return (y >> CHUNK_SHIFT) * this.chunksX + (x >> CHUNK_SHIFT);
+	}
+
+	private int offsetOf(int index) {
+		int x = index % this.width;
+		int y = index / this.width;
+		return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+	}
+}
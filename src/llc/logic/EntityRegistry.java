@@ -0,0 +1,118 @@
+package llc.logic;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import llc.entity.Entity;
+
+/**
+ * The entities of a game. Every entity gets an id that stays the same while it is registered, ids of removed
+ * entities are given away again. The entities are kept in one dense array, a removed entity is replaced by the
+ * last one, so adding and removing are O(1) and iterating with {@link #getAt(int)} doesn't visit holes.
+ */
+public class EntityRegistry {
+
+	/** The id of an entity that isn't registered */
+	public static final int NO_ID = -1;
+
+	private Entity[] entities = new Entity[16];
+	/** dense index -> id */
+	private int[] denseIds = new int[16];
+	/** id -> dense index or -1 */
+	private int[] slots = new int[16];
+	private int size;
+
+	private final Map<Entity, Integer> ids = new IdentityHashMap<Entity, Integer>();
+	private int[] freeIds = new int[16];
+	private int freeCount;
+	private int nextId;
+
+	/**
+	 * Registers the entity
+	 * @return the id of the entity, the old one if it was already registered
+	 */
+	public int add(Entity entity) {
+		Integer known = this.ids.get(entity);
+		if(known != null) return known;
+
+		int id;
+		if(this.freeCount > 0) {
+			id = this.freeIds[--this.freeCount];
+		} else {
+			id = this.nextId++;
+			if(id == this.slots.length) this.slots = Arrays.copyOf(this.slots, id * 2);
+		}
+		if(this.size == this.entities.length) {
+			this.entities = Arrays.copyOf(this.entities, this.size * 2);
+			this.denseIds = Arrays.copyOf(this.denseIds, this.size * 2);
+		}
+		this.entities[this.size] = entity;
+		this.denseIds[this.size] = id;
+		this.slots[id] = this.size++;
+		this.ids.put(entity, id);
+		return id;
+	}
+
+	/**
+	 * Removes the entity, its id may be given to another entity from now on
+	 * @return the id the entity had or {@link #NO_ID} if it wasn't registered
+	 */
+	public int remove(Entity entity) {
+		Integer known = this.ids.remove(entity);
+		if(known == null) return NO_ID;
+
+		int id = known;
+		int slot = this.slots[id];
+		int last = --this.size;
+		// the last entity fills the hole
+		this.entities[slot] = this.entities[last];
+		this.denseIds[slot] = this.denseIds[last];
+		this.slots[this.denseIds[slot]] = slot;
+		this.entities[last] = null;
+		this.slots[id] = -1;
+
+		if(this.freeCount == this.freeIds.length) this.freeIds = Arrays.copyOf(this.freeIds, this.freeCount * 2);
+		this.freeIds[this.freeCount++] = id;
+		return id;
+	}
+
+	/**
+	 * Gets the id of the entity or {@link #NO_ID} if it isn't registered
+	 */
+	public int getId(Entity entity) {
+		Integer id = this.ids.get(entity);
+		return id == null ? NO_ID : id;
+	}
+
+	/**
+	 * Gets the entity with the id or null if no entity has it
+	 */
+	public Entity get(int id) {
+		if(id < 0 || id >= this.nextId || this.slots[id] < 0) return null;
+		return this.entities[this.slots[id]];
+	}
+
+	public boolean contains(Entity entity) {
+		return this.ids.containsKey(entity);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the entity at the position of the dense array, between 0 and {@link #size()}.
+	 * Removing an entity moves the last entity to its position.
+	 */
+	public Entity getAt(int index) {
+		return this.entities[index];
+	}
+
+	/**
+	 * Gets the highest id given away so far plus one
+	 */
+	public int getIdLimit() {
+		return this.nextId;
+	}
+}
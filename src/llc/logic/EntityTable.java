@@ -0,0 +1,70 @@
+package llc.logic;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import llc.entity.Entity;
+
+/**
+ * Gives the entities standing on a {@link GridStorage} small int ids, so the storage can keep them in a primitive column.
+ * An entity keeps its id while it stands on at least one cell, ids are reused after the entity left the grid.
+ */
+class EntityTable {
+
+	/** The id of an empty cell */
+	static final int NO_ENTITY = 0;
+
+	/** id -> entity, the id 0 is never given away */
+	private Entity[] entities = new Entity[16];
+	/** id -> number of cells holding the entity, a moving entity is on two cells for a moment */
+	private int[] references = new int[16];
+	private final Map<Entity, Integer> ids = new IdentityHashMap<Entity, Integer>();
+	private int[] freeIds = new int[16];
+	private int freeCount;
+	private int nextId = 1;
+
+	/**
+	 * Gets the entity with the id or null if no entity has it
+	 */
+	Entity get(int id) {
+		return id < this.entities.length ? this.entities[id] : null;
+	}
+
+	/**
+	 * Gets the id of the entity for one more cell, a new id is given away if the entity has none
+	 */
+	int acquire(Entity entity) {
+		Integer known = this.ids.get(entity);
+		if(known != null) {
+			this.references[known]++;
+			return known;
+		}
+
+		int id;
+		if(this.freeCount > 0) {
+			id = this.freeIds[--this.freeCount];
+		} else {
+			id = this.nextId++;
+			if(id == this.entities.length) {
+				this.entities = Arrays.copyOf(this.entities, id * 2);
+				this.references = Arrays.copyOf(this.references, id * 2);
+			}
+		}
+		this.entities[id] = entity;
+		this.references[id] = 1;
+		this.ids.put(entity, id);
+		return id;
+	}
+
+	/**
+	 * Releases the id for one cell, it is free again when no cell holds the entity anymore
+	 */
+	void release(int id) {
+		if(id == NO_ENTITY || --this.references[id] > 0) return;
+		this.ids.remove(this.entities[id]);
+		this.entities[id] = null;
+		if(this.freeCount == this.freeIds.length) this.freeIds = Arrays.copyOf(this.freeIds, this.freeCount * 2);
+		this.freeIds[this.freeCount++] = id;
+	}
+}
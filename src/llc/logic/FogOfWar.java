@@ -0,0 +1,290 @@
+package llc.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import llc.entity.Entity;
+
+/**
+ * The cells each player can see. Every entity on the grid looks around within its {@link Entity#getSightRange()};
+ * its view is found with recursive shadowcasting, cells higher than the eyes of the entity hide what is behind them.
+ * Every player has a count of own entities seeing each cell and a bitmap of the cells with a count above zero.
+ * <p>
+ * The view of an entity is only cast again when it was placed on another cell or the terrain near it changed,
+ * an entity that left the grid takes back the cells it saw. The changes are taken from {@link Grid#publishChanges()},
+ * so the work per tick grows with the number of entities that changed, not with all entities.
+ */
+public class FogOfWar implements IGridChangeListener {
+
+	/** How much higher than the ground of its cell an entity looks from */
+	public static final float EYE_HEIGHT = 0.15F;
+
+	// octant transformations, column d maps the row/column of octant d to dx/dy
+	private static final int[] XX = { 1, 0, 0, -1, -1, 0, 0, 1 };
+	private static final int[] XY = { 0, 1, -1, 0, 0, -1, 1, 0 };
+	private static final int[] YX = { 0, 1, 1, 0, 0, -1, -1, 0 };
+	private static final int[] YY = { 1, 0, 0, 1, -1, 0, 0, -1 };
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int words;
+
+	/** The entities seeing cells, with the cells they see */
+	private final Map<Entity, Viewer> viewers = new IdentityHashMap<Entity, Viewer>();
+	/** The largest sight range of all entities that were placed so far */
+	private int maxSightRange;
+	/** By player id, null for players without any entity so far */
+	private PlayerView[] players = new PlayerView[0];
+
+	// scratch state of the cast
+	private Viewer casting;
+	private float eyes;
+	private long[] seen = new long[0];
+	private int seenX, seenY, seenSize;
+
+	private static class Viewer {
+		Player player;
+		int cell = -1;
+		int[] cells = new int[16];
+		int count;
+	}
+
+	private static class PlayerView {
+		final Player player;
+		final short[] counts;
+		final long[] visible;
+		final long[] explored;
+
+		PlayerView(Player player, int size, int words) {
+			this.player = player;
+			this.counts = new short[size];
+			this.visible = new long[words];
+			this.explored = new long[words];
+		}
+	}
+
+	/**
+	 * Computes the views of all registered entities and follows the changes of the grid from now on
+	 */
+	public FogOfWar(Grid grid) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.words = (this.width * this.height + 63) >>> 6;
+
+		EntityRegistry entities = grid.getEntities();
+		for(int i = 0; i < entities.size(); i++) {
+			Entity entity = entities.getAt(i);
+			Cell cell = grid.getCellAt((int)entity.getX(), (int)entity.getY());
+			if(cell != null && cell.getEntity() == entity) this.place(entity, cell.getIndex());
+		}
+		grid.addChangeListener(this);
+	}
+
+	/**
+	 * Stops following the grid
+	 */
+	public void dispose() {
+		this.grid.removeChangeListener(this);
+	}
+
+	@Override
+	public void onGridChanged(Grid grid, GridChanges changes) {
+		// replay the occupancy changes to find where each changed entity ends up, -1 if it left the grid
+		Map<Entity, Integer> positions = new IdentityHashMap<Entity, Integer>();
+		for(int i = 0; i < changes.getOccupancyChangeCount(); i++) {
+			int cell = changes.getOccupancyCell(i);
+			Entity old = changes.getOldEntity(i);
+			if(old != null && this.positionOf(old, positions) == cell) positions.put(old, -1);
+			Entity entity = changes.getNewEntity(i);
+			if(entity != null) positions.put(entity, cell);
+		}
+		for(Map.Entry<Entity, Integer> entry : positions.entrySet()) {
+			Viewer viewer = this.viewers.get(entry.getKey());
+			int cell = entry.getValue();
+			if(cell < 0) this.remove(entry.getKey());
+			else if(viewer == null || viewer.cell != cell || viewer.player != entry.getKey().getPlayer()) this.place(entry.getKey(), cell);
+		}
+
+		// terrain changes can open or block the view of the entities looking at them
+		List<Entity> near = new ArrayList<Entity>();
+		int range = this.maxSightRange;
+		for(int r = 0; r < changes.getTerrainRectangleCount(); r++) {
+			for(PlayerView view : this.players) {
+				if(view == null) continue;
+				grid.getEntityIndex(view.player).queryRect(changes.getTerrainMinX(r) - range, changes.getTerrainMinY(r) - range,
+						changes.getTerrainMaxX(r) + range, changes.getTerrainMaxY(r) + range, near);
+			}
+		}
+		for(Entity entity : near) {
+			Viewer viewer = this.viewers.get(entity);
+			if(viewer != null) this.place(entity, viewer.cell);
+		}
+	}
+
+	private int positionOf(Entity entity, Map<Entity, Integer> positions) {
+		Integer position = positions.get(entity);
+		if(position != null) return position;
+		Viewer viewer = this.viewers.get(entity);
+		return viewer == null ? -1 : viewer.cell;
+	}
+
+	/**
+	 * Checks if one of the player's entities sees the cell
+	 */
+	public boolean isVisible(Player player, int x, int y) {
+		PlayerView view = this.getView(player);
+		int index = y * this.width + x;
+		return view != null && (view.visible[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Checks if one of the player's entities has seen the cell since the fog was created
+	 */
+	public boolean isExplored(Player player, int x, int y) {
+		PlayerView view = this.getView(player);
+		int index = y * this.width + x;
+		return view != null && (view.explored[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Gets the cells the player sees as a bitset with one bit per cell index (y * width + x), must not be changed
+	 * @return the bitset or null if the player never had an entity on the grid
+	 */
+	public long[] getVisibleBits(Player player) {
+		PlayerView view = this.getView(player);
+		return view == null ? null : view.visible;
+	}
+
+	/**
+	 * Gets the number of cells the player sees
+	 */
+	public int getVisibleCount(Player player) {
+		PlayerView view = this.getView(player);
+		if(view == null) return 0;
+		int count = 0;
+		for(long word : view.visible) count += Long.bitCount(word);
+		return count;
+	}
+
+	private PlayerView getView(Player player) {
+		int id = player.getPlayerID();
+		return id < this.players.length ? this.players[id] : null;
+	}
+
+	/**
+	 * Casts the view of the entity from the cell, replacing its old view
+	 */
+	private void place(Entity entity, int cell) {
+		this.remove(entity);
+		Player player = entity.getPlayer();
+		if(player == null) return;
+
+		int id = player.getPlayerID();
+		if(id >= this.players.length) this.players = Arrays.copyOf(this.players, id + 1);
+		if(this.players[id] == null) this.players[id] = new PlayerView(player, this.width * this.height, this.words);
+
+		Viewer viewer = new Viewer();
+		viewer.player = player;
+		viewer.cell = cell;
+		this.maxSightRange = Math.max(this.maxSightRange, entity.getSightRange());
+		this.cast(viewer, cell % this.width, cell / this.width, entity.getSightRange());
+
+		PlayerView view = this.players[id];
+		for(int i = 0; i < viewer.count; i++) {
+			int index = viewer.cells[i];
+			if(view.counts[index]++ == 0) {
+				view.visible[index >>> 6] |= 1L << index;
+				view.explored[index >>> 6] |= 1L << index;
+			}
+		}
+		this.viewers.put(entity, viewer);
+	}
+
+	/**
+	 * Takes back the cells the entity saw
+	 */
+	private void remove(Entity entity) {
+		Viewer viewer = this.viewers.remove(entity);
+		if(viewer == null) return;
+		PlayerView view = this.players[viewer.player.getPlayerID()];
+		for(int i = 0; i < viewer.count; i++) {
+			int index = viewer.cells[i];
+			if(--view.counts[index] == 0) view.visible[index >>> 6] &= ~(1L << index);
+		}
+	}
+
+	/**
+	 * Collects the cells seen from the cell into the viewer, each cell once
+	 */
+	private void cast(Viewer viewer, int x, int y, int range) {
+		this.casting = viewer;
+		this.eyes = this.grid.getStorage().getTerrainHeight(y * this.width + x) + EYE_HEIGHT;
+		// the octants overlap on their borders, a window of bits around the viewer remembers the cells already added
+		this.seenX = x - range;
+		this.seenY = y - range;
+		this.seenSize = 2 * range + 1;
+		int seenWords = (this.seenSize * this.seenSize + 63) >>> 6;
+		if(this.seen.length < seenWords) this.seen = new long[seenWords];
+		else Arrays.fill(this.seen, 0, seenWords, 0);
+
+		this.reveal(x, y);
+		for(int octant = 0; octant < 8; octant++) {
+			this.castLight(x, y, 1, 1.0F, 0.0F, range, XX[octant], XY[octant], YX[octant], YY[octant]);
+		}
+		this.casting = null;
+	}
+
+	/**
+	 * Scans the rows of one octant from the row on, between the start and the end slope.
+	 * A blocking cell splits the scanned area, the part above it is scanned recursively.
+	 */
+	private void castLight(int x, int y, int row, float start, float end, int range, int xx, int xy, int yx, int yy) {
+		if(start < end) return;
+		int rangeSquared = range * range;
+		float newStart = 0;
+		for(int j = row; j <= range; j++) {
+			boolean blocked = false;
+			for(int dx = -j, dy = -j; dx <= 0; dx++) {
+				float leftSlope = (dx - 0.5F) / (dy + 0.5F);
+				float rightSlope = (dx + 0.5F) / (dy - 0.5F);
+				if(start < rightSlope) continue;
+				if(end > leftSlope) break;
+
+				int cx = x + dx * xx + dy * xy;
+				int cy = y + dx * yx + dy * yy;
+				boolean inside = cx >= 0 && cy >= 0 && cx < this.width && cy < this.height;
+				if(inside && dx * dx + dy * dy <= rangeSquared) this.reveal(cx, cy);
+
+				boolean opaque = !inside || this.grid.getStorage().getTerrainHeight(cy * this.width + cx) > this.eyes;
+				if(blocked) {
+					if(opaque) {
+						newStart = rightSlope;
+					} else {
+						blocked = false;
+						start = newStart;
+					}
+				} else if(opaque && j < range) {
+					blocked = true;
+					this.castLight(x, y, j + 1, start, leftSlope, range, xx, xy, yx, yy);
+					newStart = rightSlope;
+				}
+			}
+			if(blocked) break;
+		}
+	}
+
+	private void reveal(int x, int y) {
+		int bit = (y - this.seenY) * this.seenSize + (x - this.seenX);
+		if((this.seen[bit >>> 6] & (1L << bit)) != 0) return;
+		this.seen[bit >>> 6] |= 1L << bit;
+
+		Viewer viewer = this.casting;
+		if(viewer.count == viewer.cells.length) viewer.cells = Arrays.copyOf(viewer.cells, viewer.count * 2);
+		viewer.cells[viewer.count++] = y * this.width + x;
+	}
+}
@@ -6,18 +6,37 @@ import java.util.ArrayList;
 import java.util.List;
 
 import llc.LLC;
+import llc.ai.InfluenceMap;
+import llc.entity.EntityMovable;
 import llc.input.HotkeyManager;
 import llc.loading.GameLoader;
+import llc.util.PathFinder;
+import llc.pathfinding.CooperativePlanner;
+import llc.pathfinding.FlowFieldManager;
+import llc.pathfinding.HierarchicalPathFinder;
+import llc.pathfinding.PathCache;
+import llc.pathfinding.PathfindingService;
+import llc.pathfinding.ReachabilityMap;
 import de.teamdna.databundle.DataBundle;
 import de.teamdna.databundle.ISavable;
 
 public class GameState implements ISavable{
 
 	private Grid grid;
+	private HierarchicalPathFinder pathHierarchy;
+	private ReachabilityMap reachability;
+	private PathCache pathCache;
+	private FlowFieldManager flowFields;
+	private PathfindingService pathService;
+	private CooperativePlanner groupPlanner;
+	private FogOfWar fogOfWar;
+	private InfluenceMap influence;
 	private HotkeyManager hotKeys;
 	
 	private List<Player> players = new ArrayList<Player>();
 	public Cell hoveredCell, selectedCell;
+	/** The entities selected to move together, see {@link Logic#GROUP_SELECT} */
+	public final List<EntityMovable> selectedGroup = new ArrayList<EntityMovable>();
 
 	public Player activePlayer;
 	public int moveCount = 0;
@@ -68,10 +87,95 @@ public class GameState implements ISavable{
 		return grid;
 	}
 
+	/**
+	 * Gets the hierarchical path finder for long distance queries on the grid, creates it on first use
+	 */
+	public HierarchicalPathFinder getPathHierarchy() {
+		if (pathHierarchy == null) pathHierarchy = new HierarchicalPathFinder(grid);
+		return pathHierarchy;
+	}
+
+	/**
+	 * Gets the cache for paths on the grid, creates it on first use.
+	 * Long distances are searched on the cluster hierarchy, short ones with the {@link PathFinder}.
+	 */
+	public PathCache getPathCache() {
+		if (pathCache == null) {
+			pathCache = new PathCache(grid) {
+				@Override
+				protected List<Cell> search(Cell from, Cell to) {
+					if (Math.max(Math.abs(from.x - to.x), Math.abs(from.y - to.y)) > HierarchicalPathFinder.DEFAULT_CLUSTER_SIZE) {
+						return getPathHierarchy().findPath(from, to);
+					}
+					return PathFinder.findPath(grid, from, to);
+				}
+			};
+		}
+		return pathCache;
+	}
+
+	/**
+	 * Gets the map of cells the selected entity can reach, creates it on first use
+	 */
+	public ReachabilityMap getReachability() {
+		if (reachability == null) reachability = new ReachabilityMap(grid);
+		return reachability;
+	}
+
+	/**
+	 * Gets the flow fields leading to the town halls of the players, creates them on first use
+	 */
+	public FlowFieldManager getFlowFields() {
+		if (flowFields == null) flowFields = new FlowFieldManager(grid);
+		return flowFields;
+	}
+
+	/**
+	 * Gets the service running path queries in the background, creates it on first use
+	 */
+	public PathfindingService getPathService() {
+		if (pathService == null) pathService = new PathfindingService(grid);
+		return pathService;
+	}
+
+	/**
+	 * Gets the planner for moving several units together, creates it on first use
+	 */
+	public CooperativePlanner getGroupPlanner() {
+		if (groupPlanner == null) groupPlanner = new CooperativePlanner(grid);
+		return groupPlanner;
+	}
+
+	/**
+	 * Gets the cells each player can see, creates them on first use
+	 */
+	public FogOfWar getFogOfWar() {
+		if (fogOfWar == null) fogOfWar = new FogOfWar(grid);
+		return fogOfWar;
+	}
+
+	/**
+	 * Gets the threat and control maps of the players, creates them on first use
+	 */
+	public InfluenceMap getInfluence() {
+		if (influence == null) influence = new InfluenceMap(grid, players.size());
+		return influence;
+	}
+
+	/**
+	 * Stops the background threads of the game and closes its storage, called when another game replaces it
+	 */
+	public void dispose() {
+		if (pathService != null) pathService.shutdown();
+		if (influence != null) influence.shutdown();
+		grid.getStorage().close();
+	}
+
 	public void setActivePlayer(Player active) {
 		this.activePlayer = active;
 		LLC.getLLC().getCamera().focusCell(active.getTownHall(), true);
 		selectedCell = active.getTownHall();
+		selectedGroup.clear();
 	}
 
 	public Player getActivePlayer() {
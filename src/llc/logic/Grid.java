@@ -2,82 +2,446 @@ package llc.logic;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import llc.entity.Entity;
+import llc.pathfinding.RegionMap;
+import llc.pathfinding.SearchGraph;
 import de.teamdna.databundle.DataBundle;
 
 /**
  * Represents a loaded Grid
  */
-public class Grid {
+public class Grid implements SearchGraph {
+	
+	/** The x offset of each neighbour direction, ordered clockwise starting north-west. Even directions are diagonal. */
+	public static final int[] NEIGHBOUR_DX = { -1, 0, 1, 1, 1, 0, -1, -1 };
+	/** The y offset of each neighbour direction */
+	public static final int[] NEIGHBOUR_DY = { -1, -1, -1, 0, 1, 1, 1, 0 };
+	/** The direction of each offset, indexed by (dy + 1) * 3 + dx + 1 */
+	private static final int[] DIRECTIONS = { 0, 1, 2, 7, -1, 3, 6, 5, 4 };
 	
 	private final int heigth;
 	private final int width;
 	
-	private List<Entity> entities = new ArrayList<Entity>();
+	private final EntityRegistry entities = new EntityRegistry();
+	/** The entities of each player by player id, created with the first entity of the player */
+	private SpatialIndex[] playerEntities = new SpatialIndex[0];
+	private List<IGridListener> listeners = new ArrayList<IGridListener>();
+	private List<IGridChangeListener> changeListeners = new ArrayList<IGridChangeListener>();
+	/** The changes since the last {@link #publishChanges()} */
+	private final GridChanges changes = new GridChanges();
+	
+	private RegionMap regions;
+	
+	/** Incremented every time the occupancy of the grid changes */
+	private int version;
 	
+	/** The data of all cells */
+	private final GridStorage storage;
 	/**
-	 * Two dimensional array of cells. The first index represents the y-axis, the second one the x-axis
-	 * Starts at 0!
+	 * The cell objects handed out so far, created on first access. They are kept in blocks of
+	 * {@link #CELL_BLOCK_SIZE}x{@link #CELL_BLOCK_SIZE} cells, a block is allocated with its first cell.
 	 */
-	private Cell[][] cells;
+	private final AtomicReferenceArray<AtomicReferenceArray<Cell>> cellBlocks;
+	private final int cellBlocksX;
 	
+	private static final int CELL_BLOCK_SHIFT = 6;
+	private static final int CELL_BLOCK_SIZE = 1 << CELL_BLOCK_SHIFT;
+	
+	/**
+	 * One byte per cell (index y * width + x), bit d is set if the neighbour in direction d is walkable.
+	 * The free masks additionally require the neighbour to be empty. Both are kept up to date when cells
+	 * change, so searches can expand a cell without looking at its neighbours.
+	 */
+	private final byte[] walkableNeighbours;
+	private final byte[] freeNeighbours;
+	/** The index offset of each neighbour direction */
+	private final int[] neighbourOffsets = new int[8];
+	
+	private final OccupancyBits occupancy;
+	
+	/**
+	 * Creates a grid of empty walkable cells with height 0, stored in flat arrays
+	 */
 	public Grid(int height, int width) {
-		cells = new Cell[height][width];
-		this.heigth = height;
-		this.width = width;
+		this(height, width, new ArrayGridStorage(width * height));
 	}
 	
 	/**
-	 * Gets all the cells in this grid
-	 * @return all cells
+	 * Creates a grid on the given storage, all cells of the storage must be empty
 	 */
-	public Cell[][] getCells() {
-		return cells;
+	public Grid(int height, int width, GridStorage storage) {
+		this.heigth = height;
+		this.width = width;
+		this.storage = storage;
+		this.cellBlocksX = (width + CELL_BLOCK_SIZE - 1) >> CELL_BLOCK_SHIFT;
+		this.cellBlocks = new AtomicReferenceArray<AtomicReferenceArray<Cell>>(cellBlocksX * ((height + CELL_BLOCK_SIZE - 1) >> CELL_BLOCK_SHIFT));
+		this.walkableNeighbours = new byte[width * height];
+		this.freeNeighbours = new byte[width * height];
+		for (int d = 0; d < 8; d++) neighbourOffsets[d] = NEIGHBOUR_DY[d] * width + NEIGHBOUR_DX[d];
+		this.occupancy = new OccupancyBits(this);
+		
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = y * width + x;
+				occupancy.setWalkable(index, storage.getType(index) == CellType.WALKABLE);
+				for (int d = 0; d < 8; d++) {
+					int nx = x + NEIGHBOUR_DX[d];
+					int ny = y + NEIGHBOUR_DY[d];
+					if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+					setNeighbourBit(walkableNeighbours, index, d, storage.getType(index + neighbourOffsets[d]) == CellType.WALKABLE);
+					setNeighbourBit(freeNeighbours, index, d, isFree(index + neighbourOffsets[d]));
+				}
+			}
+		}
 	}
+	
 	/**
 	 * Gets the cell at the given coordinates
 	 * @param x the x-value
 	 * @param y the y-value
-	 * @return the cell
+	 * @return the cell or null if the coordinates are outside of the grid
 	 */
 	public Cell getCellAt(int x, int y) {
 		if(x < 0 || y < 0 || x >= this.width || y >= this.heigth) return null;
-		return cells[y][x];
+		// another thread may create the same block or cell at the same time, only one of them is kept
+		int blockIndex = (y >> CELL_BLOCK_SHIFT) * cellBlocksX + (x >> CELL_BLOCK_SHIFT);
+		AtomicReferenceArray<Cell> block = cellBlocks.get(blockIndex);
+		if (block == null) {
+			cellBlocks.compareAndSet(blockIndex, null, new AtomicReferenceArray<Cell>(CELL_BLOCK_SIZE * CELL_BLOCK_SIZE));
+			block = cellBlocks.get(blockIndex);
+		}
+		int offset = ((y & (CELL_BLOCK_SIZE - 1)) << CELL_BLOCK_SHIFT) | (x & (CELL_BLOCK_SIZE - 1));
+		Cell cell = block.get(offset);
+		if (cell == null) {
+			block.compareAndSet(offset, null, new Cell(this, x, y));
+			cell = block.get(offset);
+		}
+		return cell;
 	}
 	
-	public void setCellAt(Cell c, int x, int y) {
-		cells[y][x] = c;
+	/**
+	 * Gets the cell at the index (y * width + x)
+	 */
+	@Override
+	public Cell getCell(int index) {
+		return getCellAt(index % width, index / width);
+	}
+	
+	/**
+	 * Sets the terrain of a cell. Cells below 0 are solid, all others walkable.
+	 * @param height between 1 and -1
+	 */
+	public void setTerrain(int x, int y, float height) {
+		int index = y * width + x;
+		storage.setTerrainHeight(index, height);
+		CellType type = height < 0 ? CellType.SOLID : CellType.WALKABLE;
+		if (storage.getType(index) != type) {
+			storage.setType(index, type);
+			onTypeChanged(index);
+		} else if (!changeListeners.isEmpty()) {
+			changes.addTerrain(x, y);
+		}
+	}
+	
+	/**
+	 * Gets the storage holding the data of the cells. Reading it is the fastest way to look at many cells,
+	 * changes must go through the grid or the cells.
+	 */
+	public GridStorage getStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Gets the type of the cell at the index (y * width + x)
+	 */
+	public CellType getType(int index) {
+		return storage.getType(index);
+	}
+	
+	/**
+	 * Checks if the cell at the index (y * width + x) is walkable, it may contain an entity
+	 */
+	@Override
+	public boolean isWalkable(int index) {
+		return storage.getType(index) == CellType.WALKABLE;
+	}
+	
+	/**
+	 * Checks if the cell at the index (y * width + x) is walkable and contains no entity
+	 */
+	public boolean isFree(int index) {
+		return storage.getType(index) == CellType.WALKABLE && !storage.containsEntity(index);
+	}
+	
+	/**
+	 * Gets the bitsets of the walkable and occupied cells
+	 */
+	public OccupancyBits getOccupancy() {
+		return occupancy;
+	}
+	
+	/**
+	 * Gets the neighbours of the cell at the index (y * width + x) that are walkable
+	 * @return a bitmask, bit d is set for the direction d of {@link #NEIGHBOUR_DX} and {@link #NEIGHBOUR_DY}
+	 */
+	@Override
+	public int getWalkableNeighbours(int index) {
+		return walkableNeighbours[index] & 0xFF;
+	}
+	
+	/**
+	 * Gets the neighbours of the cell at the index (y * width + x) that are walkable and contain no entity
+	 * @return a bitmask like {@link #getWalkableNeighbours(int)}
+	 */
+	@Override
+	public int getFreeNeighbours(int index) {
+		return freeNeighbours[index] & 0xFF;
+	}
+	
+	/**
+	 * Gets the difference of the cell indices between a cell and its neighbour in each direction
+	 */
+	@Override
+	public int[] getNeighbourOffsets() {
+		return neighbourOffsets;
+	}
+	
+	/**
+	 * Copies the neighbour masks of the cells from the index on into the arrays, as many as fit
+	 */
+	public void copyNeighbourMasks(int start, byte[] walkable, byte[] free) {
+		System.arraycopy(walkableNeighbours, start, walkable, 0, walkable.length);
+		System.arraycopy(freeNeighbours, start, free, 0, free.length);
+	}
+	
+	/**
+	 * Gets the direction of the offset between two neighbours
+	 * @return the direction or -1 if the offset doesn't lead to a neighbour
+	 */
+	public static int getDirection(int dx, int dy) {
+		if (dx < -1 || dx > 1 || dy < -1 || dy > 1) return -1;
+		return DIRECTIONS[(dy + 1) * 3 + dx + 1];
+	}
+	
+	/**
+	 * Updates the bits pointing at the cell in the masks of its neighbours
+	 */
+	private void updateNeighbours(int index) {
+		boolean walkable = storage.getType(index) == CellType.WALKABLE;
+		boolean free = isFree(index);
+		int x = index % width;
+		int y = index / width;
+		for (int d = 0; d < 8; d++) {
+			int nx = x + NEIGHBOUR_DX[d];
+			int ny = y + NEIGHBOUR_DY[d];
+			if (nx < 0 || ny < 0 || nx >= width || ny >= heigth) continue;
+			// the neighbour sees the cell in the opposite direction
+			int opposite = (d + 4) & 7;
+			setNeighbourBit(walkableNeighbours, index + neighbourOffsets[d], opposite, walkable);
+			setNeighbourBit(freeNeighbours, index + neighbourOffsets[d], opposite, free);
+		}
+	}
+	
+	private static void setNeighbourBit(byte[] masks, int index, int direction, boolean set) {
+		if (set) masks[index] |= 1 << direction;
+		else masks[index] &= ~(1 << direction);
 	}
 
 	public int getHeigth() {
 		return heigth;
 	}
 
+	@Override
 	public int getWidth() {
 		return width;
 	}
+	
+	/**
+	 * Gets the number of cells
+	 */
+	@Override
+	public int getSize() {
+		return width * heigth;
+	}
 
+	/**
+	 * Registers the entity, it is indexed at the cell of its position. Its player must already be set.
+	 */
 	public void addEntity(Entity entity) {
-		entities.add(entity);
+		if (entities.contains(entity)) return;
+		int id = entities.add(entity);
+		Cell cell = getCellAt((int) entity.getX(), (int) entity.getY());
+		// the player may have been set after the entity was placed
+		if (cell != null && cell.getEntity() == entity) occupancy.setOwner(cell.getIndex(), entity, true);
+		if (entity.getPlayer() != null) getEntityIndex(entity.getPlayer()).put(id, (int) entity.getX(), (int) entity.getY());
+		version++;
 	}
 	
 	public void removeEntity(Entity entity) {
-		entities.remove(entity);
+		int id = entities.remove(entity);
+		if (id == EntityRegistry.NO_ID) return;
+		for (SpatialIndex index : playerEntities) if (index != null) index.remove(id);
+		version++;
+	}
+	
+	/**
+	 * Gets all entities of the game
+	 */
+	public EntityRegistry getEntities() {
+		return entities;
+	}
+	
+	/**
+	 * Gets the index of the entities of the player, entities are moved in it when they are placed on another cell
+	 */
+	public SpatialIndex getEntityIndex(Player player) {
+		int id = player.getPlayerID();
+		if (id >= playerEntities.length) playerEntities = Arrays.copyOf(playerEntities, id + 1);
+		if (playerEntities[id] == null) playerEntities[id] = new SpatialIndex(entities, width, heigth);
+		return playerEntities[id];
+	}
+	
+	/**
+	 * Finds the entity of another player closest to the cell
+	 * @param maxDistance entities further away are ignored
+	 * @return the entity or null if there is none within the distance
+	 */
+	public Entity findNearestEnemy(Player player, int x, int y, int maxDistance) {
+		Entity nearest = null;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < playerEntities.length; i++) {
+			if (playerEntities[i] == null || i == player.getPlayerID()) continue;
+			Entity candidate = playerEntities[i].findNearest(x, y, maxDistance);
+			if (candidate == null) continue;
+			int cell = playerEntities[i].getCell(entities.getId(candidate));
+			long dx = cell % width - x;
+			long dy = cell / width - y;
+			if (dx * dx + dy * dy < best) {
+				best = dx * dx + dy * dy;
+				nearest = candidate;
+				// the other players' entities only have to be searched up to this distance
+				maxDistance = (int) Math.ceil(Math.sqrt(best));
+			}
+		}
+		return nearest;
+	}
+	
+	/**
+	 * Gets the occupancy version of the grid. It changes whenever an entity is placed, moved or removed,
+	 * so everything computed for an older version may be outdated.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Gets the connected regions of the free cells or null if they haven't been computed
+	 */
+	public RegionMap getRegions() {
+		return regions;
+	}
+	
+	/**
+	 * Computes the connected regions of the free cells, they are kept up to date from then on
+	 */
+	public void computeRegions() {
+		if (regions != null) regions.dispose();
+		regions = new RegionMap(this);
+	}
+	
+	/**
+	 * Registers a listener that gets notified about changes of the grid
+	 */
+	public void addListener(IGridListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(IGridListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Registers a listener that gets the changes of the grid once per tick.
+	 * Changes are only recorded while there is at least one change listener.
+	 */
+	public void addChangeListener(IGridChangeListener listener) {
+		changeListeners.add(listener);
+	}
+	
+	public void removeChangeListener(IGridChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+	
+	/**
+	 * Hands the changes since the last call to the change listeners. Called once per tick by the game loop.
+	 */
+	public void publishChanges() {
+		if (changes.isEmpty()) return;
+		for (int i = 0; i < changeListeners.size(); i++) changeListeners.get(i).onGridChanged(this, changes);
+		changes.clear();
+	}
+	
+	/**
+	 * Called by a {@link Cell} of this grid when its entity changed
+	 */
+	void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		version++;
+		int index = cell.getIndex();
+		if ((oldEntity == null) != (newEntity == null)) updateNeighbours(index);
+		occupancy.setOccupied(index, newEntity != null);
+		if (oldEntity != null) occupancy.setOwner(index, oldEntity, false);
+		if (newEntity != null) occupancy.setOwner(index, newEntity, true);
+		if (newEntity != null && newEntity.getPlayer() != null) {
+			int id = entities.getId(newEntity);
+			if (id != EntityRegistry.NO_ID) getEntityIndex(newEntity.getPlayer()).put(id, cell.x, cell.y);
+		}
+		if (!changeListeners.isEmpty()) changes.addOccupancy(cell, oldEntity, newEntity);
+		for (int i = 0; i < listeners.size(); i++) listeners.get(i).onOccupancyChanged(cell, oldEntity, newEntity);
+	}
+	
+	/**
+	 * Called by a {@link Cell} of this grid when its type changed
+	 */
+	void onTypeChanged(Cell cell) {
+		onTypeChanged(cell.getIndex());
+	}
+	
+	private void onTypeChanged(int index) {
+		version++;
+		occupancy.setWalkable(index, storage.getType(index) == CellType.WALKABLE);
+		updateNeighbours(index);
+		if (!changeListeners.isEmpty()) changes.addTerrain(index % width, index / width);
+		if (listeners.isEmpty()) return;
+		Cell cell = getCellAt(index % width, index / width);
+		for (int i = 0; i < listeners.size(); i++) listeners.get(i).onTypeChanged(cell);
 	}
 	
 	public void save(DataBundle data) {
 		data.setInt("entitiesSize", entities.size());
 		for (int i = 0; i < entities.size(); i++){
-			data.setBundle("entity" + i, entities.get(i).writeToDataBundle());
+			data.setBundle("entity" + i, entities.getAt(i).writeToDataBundle());
 		}
 	}
 
+	/**
+	 * Replaces all entities of the grid with the saved ones
+	 */
 	public void read(DataBundle data, List<Player> players) throws ClassNotFoundException, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+		// the saved entities include the bases the grid was loaded with
+		while (entities.size() > 0) {
+			Entity old = entities.getAt(entities.size() - 1);
+			Cell cell = getCellAt((int) old.getX(), (int) old.getY());
+			if (cell != null && cell.getEntity() == old) cell.setEntity(null);
+			removeEntity(old);
+		}
 		for (int i = 0; i < data.getInt("entitiesSize"); i++) {
 			Entity e = (Entity) Class.forName(data.getBundle("entity" + i).getString("type").substring(6)).asSubclass(Entity.class).getConstructor( DataBundle.class, List.class ).newInstance(new Object[] { data.getBundle("entity" + i), players });
 			getCellAt((int) e.getX(), (int) e.getY()).setEntity(e);
+			addEntity(e);
 		}
 	}
 }
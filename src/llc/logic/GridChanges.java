@@ -0,0 +1,174 @@
+package llc.logic;
+
+import java.util.Arrays;
+
+import llc.entity.Entity;
+
+/**
+ * The changes of a {@link Grid} during one tick, handed to the {@link IGridChangeListener}s by {@link Grid#publishChanges()}.
+ * Terrain changes (height and type) are merged into a few dirty rectangles, occupancy changes are kept one by one
+ * in the order they happened. Only valid during the call of the listener.
+ */
+public class GridChanges {
+
+	/** More terrain changes are merged into the rectangle that grows the least */
+	public static final int MAX_RECTANGLES = 8;
+
+	/** minX, minY, maxX, maxY of each rectangle, inclusive */
+	private final int[] rectangles = new int[MAX_RECTANGLES * 4];
+	private int rectangleCount;
+
+	private int[] occupancyCells = new int[16];
+	private Entity[] oldEntities = new Entity[16];
+	private Entity[] newEntities = new Entity[16];
+	private int occupancyCount;
+	private int occupancyMinX, occupancyMinY, occupancyMaxX, occupancyMaxY;
+
+	void addTerrain(int x, int y) {
+		// a change next to a rectangle extends it, so a line of changes stays one rectangle
+		for(int i = 0; i < this.rectangleCount * 4; i += 4) {
+			if(x >= this.rectangles[i] - 1 && y >= this.rectangles[i + 1] - 1 && x <= this.rectangles[i + 2] + 1 && y <= this.rectangles[i + 3] + 1) {
+				this.extend(i, x, y);
+				return;
+			}
+		}
+		if(this.rectangleCount < MAX_RECTANGLES) {
+			int i = this.rectangleCount++ * 4;
+			this.rectangles[i] = this.rectangles[i + 2] = x;
+			this.rectangles[i + 1] = this.rectangles[i + 3] = y;
+			return;
+		}
+
+		int best = 0;
+		long bestGrowth = Long.MAX_VALUE;
+		for(int i = 0; i < this.rectangleCount * 4; i += 4) {
+			long growth = area(Math.min(x, this.rectangles[i]), Math.min(y, this.rectangles[i + 1]), Math.max(x, this.rectangles[i + 2]), Math.max(y, this.rectangles[i + 3]))
+					- area(this.rectangles[i], this.rectangles[i + 1], this.rectangles[i + 2], this.rectangles[i + 3]);
+			if(growth < bestGrowth) {
+				bestGrowth = growth;
+				best = i;
+			}
+		}
+		this.extend(best, x, y);
+	}
+
+	private void extend(int i, int x, int y) {
+		this.rectangles[i] = Math.min(x, this.rectangles[i]);
+		this.rectangles[i + 1] = Math.min(y, this.rectangles[i + 1]);
+		this.rectangles[i + 2] = Math.max(x, this.rectangles[i + 2]);
+		this.rectangles[i + 3] = Math.max(y, this.rectangles[i + 3]);
+	}
+
+	private static long area(int minX, int minY, int maxX, int maxY) {
+		return (long)(maxX - minX + 1) * (maxY - minY + 1);
+	}
+
+	void addOccupancy(Cell cell, Entity oldEntity, Entity newEntity) {
+		if(this.occupancyCount == this.occupancyCells.length) {
+			int length = this.occupancyCount * 2;
+			this.occupancyCells = Arrays.copyOf(this.occupancyCells, length);
+			this.oldEntities = Arrays.copyOf(this.oldEntities, length);
+			this.newEntities = Arrays.copyOf(this.newEntities, length);
+		}
+		if(this.occupancyCount == 0) {
+			this.occupancyMinX = this.occupancyMaxX = cell.x;
+			this.occupancyMinY = this.occupancyMaxY = cell.y;
+		} else {
+			this.occupancyMinX = Math.min(this.occupancyMinX, cell.x);
+			this.occupancyMinY = Math.min(this.occupancyMinY, cell.y);
+			this.occupancyMaxX = Math.max(this.occupancyMaxX, cell.x);
+			this.occupancyMaxY = Math.max(this.occupancyMaxY, cell.y);
+		}
+		this.occupancyCells[this.occupancyCount] = cell.getIndex();
+		this.oldEntities[this.occupancyCount] = oldEntity;
+		this.newEntities[this.occupancyCount] = newEntity;
+		this.occupancyCount++;
+	}
+
+	void clear() {
+		this.rectangleCount = 0;
+		Arrays.fill(this.oldEntities, 0, this.occupancyCount, null);
+		Arrays.fill(this.newEntities, 0, this.occupancyCount, null);
+		this.occupancyCount = 0;
+	}
+
+	public boolean isEmpty() {
+		return this.rectangleCount == 0 && this.occupancyCount == 0;
+	}
+
+	/**
+	 * Gets the number of rectangles containing all cells whose height or type changed
+	 */
+	public int getTerrainRectangleCount() {
+		return this.rectangleCount;
+	}
+
+	public int getTerrainMinX(int rectangle) {
+		return this.rectangles[rectangle * 4];
+	}
+
+	public int getTerrainMinY(int rectangle) {
+		return this.rectangles[rectangle * 4 + 1];
+	}
+
+	/**
+	 * Gets the right bound of the rectangle, inclusive
+	 */
+	public int getTerrainMaxX(int rectangle) {
+		return this.rectangles[rectangle * 4 + 2];
+	}
+
+	/**
+	 * Gets the lower bound of the rectangle, inclusive
+	 */
+	public int getTerrainMaxY(int rectangle) {
+		return this.rectangles[rectangle * 4 + 3];
+	}
+
+	/**
+	 * Gets the number of occupancy changes, a cell appears once for every change
+	 */
+	public int getOccupancyChangeCount() {
+		return this.occupancyCount;
+	}
+
+	/**
+	 * Gets the index (y * width + x) of the cell of the change
+	 */
+	public int getOccupancyCell(int change) {
+		return this.occupancyCells[change];
+	}
+
+	/**
+	 * Gets the entity that was on the cell before the change, may be null
+	 */
+	public Entity getOldEntity(int change) {
+		return this.oldEntities[change];
+	}
+
+	/**
+	 * Gets the entity that was on the cell after the change, may be null
+	 */
+	public Entity getNewEntity(int change) {
+		return this.newEntities[change];
+	}
+
+	/**
+	 * Gets the bounds of all occupancy changes, only valid if there is at least one
+	 */
+	public int getOccupancyMinX() {
+		return this.occupancyMinX;
+	}
+
+	public int getOccupancyMinY() {
+		return this.occupancyMinY;
+	}
+
+	public int getOccupancyMaxX() {
+		return this.occupancyMaxX;
+	}
+
+	public int getOccupancyMaxY() {
+		return this.occupancyMaxY;
+	}
+}
@@ -0,0 +1,44 @@
+package llc.logic;
+
+import llc.entity.Entity;
+
+/**
+ * Holds the data of the cells of a {@link Grid}: terrain height, {@link CellType} and the entity on the cell.
+ * Cells are addressed by their index y * width + x; a {@link Cell} is only a view on one index.
+ * The storage doesn't notify anybody, changes have to go through the {@link Grid} or the {@link Cell}.
+ */
+public interface GridStorage {
+
+	/**
+	 * Gets the number of cells
+	 */
+	int getSize();
+
+	float getTerrainHeight(int index);
+
+	void setTerrainHeight(int index, float height);
+
+	CellType getType(int index);
+
+	void setType(int index, CellType type);
+
+	/**
+	 * Gets the entity on the cell or null if it is empty
+	 */
+	Entity getEntity(int index);
+
+	void setEntity(int index, Entity entity);
+
+	boolean containsEntity(int index);
+
+	/**
+	 * Releases memory that isn't needed to hold the current state of the cells
+	 */
+	void trim();
+
+	/**
+	 * Writes pending changes and releases what the storage holds outside the heap, called when the game ends.
+	 * The storage must not be used afterwards.
+	 */
+	void close();
+}
@@ -0,0 +1,15 @@
+package llc.logic;
+
+/**
+ * Gets the changes of a {@link Grid} once per tick, to update structures derived from the grid in the changed area only.
+ * {@link IGridListener}s are notified right away instead.
+ */
+public interface IGridChangeListener {
+
+	/**
+	 * Called by {@link Grid#publishChanges()} if the grid changed since the last call
+	 * @param changes the changes, only valid during this call
+	 */
+	void onGridChanged(Grid grid, GridChanges changes);
+
+}
@@ -0,0 +1,19 @@
+package llc.logic;
+
+import llc.entity.Entity;
+
+public interface IGridListener {
+
+	/**
+	 * This function is called when an entity was placed on or removed from a cell of the grid
+	 * @param oldEntity the entity that was on the cell before, may be null
+	 * @param newEntity the entity that is on the cell now, may be null
+	 */
+	void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity);
+	
+	/**
+	 * This function is called when a cell became walkable or solid
+	 */
+	void onTypeChanged(Cell cell);
+	
+}
@@ -1,5 +1,10 @@
 package llc.logic;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
@@ -11,7 +16,12 @@ import llc.entity.IAttacking;
 import llc.entity.IRepairer;
 import llc.input.Input;
 import llc.input.Input.Direction;
-import llc.util.PathFinder;
+import llc.input.KeyBinding;
+import llc.loading.Settings;
+import llc.pathfinding.PathMetrics;
+import llc.pathfinding.ReachabilityMap;
+
+import org.lwjgl.input.Keyboard;
 
 /**
  * Logic class
@@ -24,6 +34,9 @@ import llc.util.PathFinder;
  */
 public class Logic {
 	
+	/** Held while clicking own units to select several of them, a click on a free cell then moves them together */
+	public static final KeyBinding GROUP_SELECT = new KeyBinding("select.group", Keyboard.KEY_LSHIFT, false);
+	
 	private GameState gameState;
 	private EntityMovable selectedEntity;
 	private Input input;
@@ -67,9 +80,32 @@ public class Logic {
 	 * @param gameState The new gameState
 	 */
 	public void setGameState(GameState gameState) {
+		if (this.gameState != null) {
+			finishPathMetrics();
+			if (this.gameState != gameState) this.gameState.dispose();
+		} else {
+			PathMetrics.get().reset();
+		}
 		this.gameState = gameState;
 	}
 	
+	/**
+	 * Ends the pathfinding metrics of the current game: they are written into a file if the settings ask for it
+	 * and start from zero afterwards
+	 */
+	public void finishPathMetrics() {
+		Settings settings = LLC.getLLC() != null ? LLC.getLLC().getSettings() : null;
+		if (settings != null && settings.getDumpPathMetrics() && !PathMetrics.get().isEmpty()) {
+			File file = new File("pathmetrics-" + gameState.levelName + "-" + System.currentTimeMillis() + ".txt");
+			try {
+				PathMetrics.get().dump(file);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		PathMetrics.get().reset();
+	}
+	
 	/**
 	 * Handles if the mouse hovers above a cell
 	 * @param hoverX
@@ -99,16 +135,25 @@ public class Logic {
 //					if (this.selectedEntity instanceof IRepairer && clickedCell.getEntity() instanceof EntityBuildingBase) {
 //						healBase(clickY, clickY);
 //					} else {
+					if (GROUP_SELECT.isPressed() && clickedCell.getEntity() instanceof EntityMovable) {
+						toggleGroup((EntityMovable) clickedCell.getEntity());
+					} else {
 						// select
+						gameState.selectedGroup.clear();
 						selectEntity(clickedCell.getEntity());
 						gameState.selectedCell = clickedCell;
+					}
 //					}
 
-				} else if (selectedEntity instanceof IAttacking && selectedEntity.isCellInRange(clickX, clickY)) {
+				} else if (selectedEntity instanceof IAttacking && isInMoveRange(clickX, clickY)) {
 					// attack
 					attackCell(clickX, clickY);
 				}
-			} else if (clickedCell.getType() == CellType.WALKABLE && selectedEntity != null && selectedEntity.isCellInRange(clickX, clickY)) {
+			} else if (clickedCell.getType() == CellType.WALKABLE && gameState.selectedGroup.size() > 1) {
+				// move the group
+				moveEntities(gameState.selectedGroup, clickedCell);
+				gameState.selectedGroup.clear();
+			} else if (clickedCell.getType() == CellType.WALKABLE && selectedEntity != null && isInMoveRange(clickX, clickY)) {
 				// move
 				moveSelectedEntity(clickX, clickY, true, false);
 			}
@@ -130,6 +175,18 @@ public class Logic {
 		}
 	}
 	
+	/**
+	 * Adds the entity to the selected group or removes it if it is already in there.
+	 * The single selected entity becomes the first member of a new group.
+	 */
+	private void toggleGroup(EntityMovable entity) {
+		List<EntityMovable> group = gameState.selectedGroup;
+		if (group.isEmpty() && selectedEntity != null && selectedEntity != entity) group.add(selectedEntity);
+		if (!group.remove(entity)) group.add(entity);
+		selectedEntity = group.isEmpty() ? null : group.get(group.size() - 1);
+		gameState.selectedCell = selectedEntity == null ? null : gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY());
+	}
+	
 	public void focusCell(Cell c, boolean animate) {
 		LLC.getLLC().getCamera().focusCell(c, animate);
 	}
@@ -170,6 +227,7 @@ public class Logic {
 	private void gameOver(Player winner) {
 		gameState.isGameOver = true;
 		gameState.winner = winner;
+		finishPathMetrics();
 	}
 
 	/**
@@ -179,16 +237,73 @@ public class Logic {
 	 * @param countMove Does the move count as player action.
 	 */
 	private void moveSelectedEntity(int destX, int destY, boolean countMove, boolean shouldReturn) {
-		List<Cell> path = PathFinder.findPath(this.gameState.getGrid(), this.gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), this.gameState.getGrid().getCellAt(destX, destY));
+		List<Cell> path = isInMoveRange(destX, destY) ? gameState.getReachability().getPath(destX, destY) : gameState.getPathCache().findPath(this.gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), this.gameState.getGrid().getCellAt(destX, destY));
 		if(path != null) {
 			selectedEntity.initMoveRoutine(this, path, countMove, shouldReturn);
 			gameState.selectedCell = null;
 		}
-		
-		EntityMovable selectedEntity = this.selectedEntity;
-		selectedEntity.initMoveRoutine(this, PathFinder.findPath(this.gameState.getGrid(),
-				this.gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), this.gameState.getGrid().getCellAt(destX, destY)), countMove, shouldReturn);
-		gameState.selectedCell = null;
+	}
+	
+	/**
+	 * Moves the entities as a group to the free cells closest to the target. The paths are planned together,
+	 * so no two entities walk on the same cell at the same time. Entities that can't get to their cell within their
+	 * move range stay where they are. The group move counts as one player action.
+	 */
+	public void moveEntities(List<EntityMovable> entities, final Cell target) {
+		Grid grid = gameState.getGrid();
+		List<EntityMovable> group = new ArrayList<EntityMovable>(entities);
+		Collections.sort(group, new Comparator<EntityMovable>() {
+			@Override
+			public int compare(EntityMovable a, EntityMovable b) {
+				return Float.compare(Math.abs(a.getX() - target.x) + Math.abs(a.getY() - target.y), Math.abs(b.getX() - target.x) + Math.abs(b.getY() - target.y));
+			}
+		});
+
+		List<Cell> goals = findFreeCellsAround(target, group.size());
+		if (goals.size() < group.size()) group = group.subList(0, goals.size());
+		List<Cell> starts = new ArrayList<Cell>();
+		int[] maxMoves = new int[group.size()];
+		for (int i = 0; i < group.size(); i++) {
+			starts.add(grid.getCellAt((int)group.get(i).getX(), (int)group.get(i).getY()));
+			maxMoves[i] = (int)group.get(i).getMoveRange();
+		}
+
+		List<List<Cell>> paths = gameState.getGroupPlanner().plan(starts, goals, maxMoves);
+		boolean countMove = true;
+		for (int i = 0; i < group.size(); i++) {
+			if (paths.get(i) == null) continue;
+			group.get(i).initMoveRoutine(this, paths.get(i), countMove, false, false);
+			countMove = false;
+		}
+		if (!countMove) gameState.selectedCell = null;
+	}
+
+	/**
+	 * Gets the walkable cells without an entity closest to the target, starting with the target itself
+	 */
+	private List<Cell> findFreeCellsAround(Cell target, int count) {
+		Grid grid = gameState.getGrid();
+		List<Cell> found = new ArrayList<Cell>();
+		for (int radius = 0; found.size() < count && radius <= Math.max(grid.getWidth(), grid.getHeigth()); radius++) {
+			for (int y = target.y - radius; y <= target.y + radius; y++) {
+				for (int x = target.x - radius; x <= target.x + radius; x++) {
+					if (Math.max(Math.abs(x - target.x), Math.abs(y - target.y)) != radius) continue;
+					Cell cell = grid.getCellAt(x, y);
+					if (cell != null && cell.getType() == CellType.WALKABLE && !cell.containsEntity() && found.size() < count) found.add(cell);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Checks if the selected entity can reach the cell within its move range
+	 */
+	private boolean isInMoveRange(int x, int y) {
+		if (!selectedEntity.isCellInRange(x, y)) return false;
+		ReachabilityMap reachability = gameState.getReachability();
+		reachability.update(gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), (int)selectedEntity.getMoveRange());
+		return reachability.isReachable(x, y);
 	}
 	
 	public void finishEntityMove(int origX, int origY, boolean countMove, Entity entity) {
@@ -208,6 +323,7 @@ public class Logic {
 			gameState.getActivePlayer().addMinerals(50);
 			gameState.setActivePlayer(gameState.getNextPlayer());
 			gameState.moveCount = 0;
+			gameState.getGrid().getStorage().trim();
 		}
 	}
 
@@ -215,11 +331,12 @@ public class Logic {
 		int cx = gameState.getActivePlayer().getTownHall().x;
 		int cy = gameState.getActivePlayer().getTownHall().y;
 		
-		Cell spawnCell = null;
-		while(spawnCell == null || spawnCell.containsEntity() || spawnCell.getType() == CellType.SOLID)
-			spawnCell = this.gameState.getGrid().getCellAt(cx + random.nextInt(4) - 2, cy + random.nextInt(4) - 2);
+		// pick one of the free cells near the town hall, there may be none
+		OccupancyBits occupancy = gameState.getGrid().getOccupancy();
+		int free = occupancy.count(CellFilter.FREE, null, cx - 2, cy - 2, cx + 1, cy + 1);
+		Cell spawnCell = free == 0 ? null : occupancy.find(CellFilter.FREE, null, cx - 2, cy - 2, cx + 1, cy + 1, random.nextInt(free));
 		
-		if (spawnCell != null && !spawnCell.containsEntity() && entity.getCost() > 0 && gameState.getActivePlayer().getMinerals() >= entity.getCost()) {
+		if (spawnCell != null && entity.getCost() > 0 && gameState.getActivePlayer().getMinerals() >= entity.getCost()) {
 			gameState.getActivePlayer().removeMinerals(entity.getCost());
 			entity.setPlayer(gameState.getActivePlayer());
 			spawnCell.setEntity(entity);
@@ -243,7 +360,7 @@ public class Logic {
 		if (selectedEntity == null) {
 			return;
 		}
-		List<Cell> c = PathFinder.findPath(gameState.getGrid(), gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), gameState.getActivePlayer().getTownHall());
+		List<Cell> c = gameState.getPathCache().findPath(gameState.getGrid().getCellAt((int)selectedEntity.getX(), (int)selectedEntity.getY()), gameState.getActivePlayer().getTownHall());
 		if (c == null) {
 			return;
 		}
@@ -0,0 +1,249 @@
+package llc.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import llc.entity.Entity;
+
+/**
+ * Keeps the cells in a memory-mapped file, so worlds larger than the heap can be played and opening one doesn't read it.
+ * The operating system loads the parts of the file that are used and writes changes back; terrain changes are kept
+ * in the file. The file is closed right after mapping it, the mapping stays valid without it.
+ * <p>
+ * The file starts with a header of five ints (magic, format version, width, height and a flag that is 1 while the
+ * occupancy column may contain entity ids), followed by the columns: the heights as floats, the types as bytes and
+ * the occupancy as int entity ids, each with one value per cell index. The file ends with the number of base cells
+ * of the map and their indices.
+ * Entities only live as long as the game, so the occupancy column is cleared when the file is opened again.
+ * A mapping can't be larger than 2GB, so every column is mapped in segments of {@link #SEGMENT_CELLS} cells.
+ */
+public class MappedGridStorage implements GridStorage {
+
+	private static final int MAGIC = 0x4C4C4357;
+	private static final int FORMAT_VERSION = 2;
+	private static final int HEADER_SIZE = 5 * 4;
+	/** The header int that is 1 while the occupancy column may contain entity ids */
+	private static final int OCCUPIED_FLAG = 4 * 4;
+	/** The number of cells per mapped segment of a column, a segment of 4 byte values is 1GB */
+	private static final int SEGMENT_SHIFT = 28;
+	private static final int SEGMENT_CELLS = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_CELLS - 1;
+
+	private static final CellType[] TYPES = CellType.values();
+
+	private final int width;
+	private final int height;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] heights;
+	private final MappedByteBuffer[] types;
+	private final MappedByteBuffer[] occupants;
+	private final int[] bases;
+
+	private final EntityTable entities = new EntityTable();
+	private int occupiedCells;
+
+	private MappedGridStorage(RandomAccessFile file, int width, int height, int[] bases) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.bases = bases;
+		long size = (long)width * height;
+		FileChannel channel = file.getChannel();
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		this.heights = mapColumn(channel, HEADER_SIZE, size, 4);
+		this.types = mapColumn(channel, HEADER_SIZE + size * 4, size, 1);
+		this.occupants = mapColumn(channel, HEADER_SIZE + size * 5, size, 4);
+	}
+
+	/**
+	 * Maps a column of the file in segments
+	 * @param position the offset of the column in the file
+	 * @param bytes the number of bytes per cell
+	 */
+	private static MappedByteBuffer[] mapColumn(FileChannel channel, long position, long cells, int bytes) throws IOException {
+		MappedByteBuffer[] segments = new MappedByteBuffer[(int)((cells + SEGMENT_CELLS - 1) >>> SEGMENT_SHIFT)];
+		for(int i = 0; i < segments.length; i++) {
+			long first = (long)i << SEGMENT_SHIFT;
+			long length = Math.min(SEGMENT_CELLS, cells - first) * bytes;
+			segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position + first * bytes, length);
+		}
+		return segments;
+	}
+
+	/**
+	 * Checks that the cell indices of a world with the size fit into an int
+	 */
+	private static void checkSize(File file, int width, int height) throws IOException {
+		if(width <= 0 || height <= 0 || (long)width * height > Integer.MAX_VALUE) throw new IOException("Unsupported world size " + width + "x" + height + ": " + file);
+	}
+
+	/**
+	 * Creates a new world file with the terrain of the source, an existing file is replaced
+	 * @param bases the indices of the cells containing a base
+	 */
+	public static MappedGridStorage create(File file, int width, int height, TerrainSource terrain, int[] bases) throws IOException {
+		checkSize(file, width, height);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long columnsEnd = HEADER_SIZE + (long)width * height * 9;
+			raf.setLength(0);
+			raf.setLength(columnsEnd + 4 + bases.length * 4L);
+			raf.seek(columnsEnd);
+			raf.writeInt(bases.length);
+			for(int base : bases) raf.writeInt(base);
+
+			MappedGridStorage storage = new MappedGridStorage(raf, width, height, bases.clone());
+			storage.header.putInt(0, MAGIC);
+			storage.header.putInt(4, FORMAT_VERSION);
+			storage.header.putInt(8, width);
+			storage.header.putInt(12, height);
+			storage.header.putInt(OCCUPIED_FLAG, 0);
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					float h = terrain.getTerrainHeight(x, y);
+					int index = y * width + x;
+					storage.setTerrainHeight(index, h);
+					storage.setType(index, h < 0 ? CellType.SOLID : CellType.WALKABLE);
+				}
+			}
+			return storage;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Opens a world file created by {@link #create(File, int, int, TerrainSource, int[])}. The cells don't contain entities.
+	 * @throws IOException if the file can't be read or is no world file
+	 */
+	public static MappedGridStorage open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if(raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) throw new IOException("Not a world file: " + file);
+			if(raf.readInt() != FORMAT_VERSION) throw new IOException("Unsupported world file version: " + file);
+			int width = raf.readInt();
+			int height = raf.readInt();
+			checkSize(file, width, height);
+			long columnsEnd = HEADER_SIZE + (long)width * height * 9;
+			if(raf.length() < columnsEnd + 4) throw new IOException("Truncated world file: " + file);
+			raf.seek(columnsEnd);
+			int baseCount = raf.readInt();
+			if(baseCount < 0 || raf.length() < columnsEnd + 4 + baseCount * 4L) throw new IOException("Truncated world file: " + file);
+			int[] bases = new int[baseCount];
+			for(int i = 0; i < bases.length; i++) bases[i] = raf.readInt();
+
+			MappedGridStorage storage = new MappedGridStorage(raf, width, height, bases);
+			if(storage.header.getInt(OCCUPIED_FLAG) != 0) {
+				// the entities of the last game are gone
+				for(int i = 0, size = width * height; i < size; i++) {
+					if(storage.getOccupant(i) != EntityTable.NO_ENTITY) storage.setOccupant(i, EntityTable.NO_ENTITY);
+				}
+				storage.header.putInt(OCCUPIED_FLAG, 0);
+			}
+			return storage;
+		} finally {
+			raf.close();
+		}
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets the indices of the cells containing a base when the world was created
+	 */
+	public int[] getBases() {
+		return this.bases.clone();
+	}
+
+	@Override
+	public int getSize() {
+		return this.width * this.height;
+	}
+
+	@Override
+	public float getTerrainHeight(int index) {
+		return this.heights[index >>> SEGMENT_SHIFT].getFloat((index & SEGMENT_MASK) << 2);
+	}
+
+	@Override
+	public void setTerrainHeight(int index, float height) {
+		this.heights[index >>> SEGMENT_SHIFT].putFloat((index & SEGMENT_MASK) << 2, height);
+	}
+
+	@Override
+	public CellType getType(int index) {
+		return TYPES[this.types[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK)];
+	}
+
+	@Override
+	public void setType(int index, CellType type) {
+		this.types[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, (byte)type.ordinal());
+	}
+
+	@Override
+	public Entity getEntity(int index) {
+		return this.entities.get(this.getOccupant(index));
+	}
+
+	@Override
+	public void setEntity(int index, Entity entity) {
+		int old = this.getOccupant(index);
+		this.entities.release(old);
+		if(old != EntityTable.NO_ENTITY) this.occupiedCells--;
+		if(entity == null) {
+			this.setOccupant(index, EntityTable.NO_ENTITY);
+			return;
+		}
+		if(this.occupiedCells++ == 0) this.header.putInt(OCCUPIED_FLAG, 1);
+		this.setOccupant(index, this.entities.acquire(entity));
+	}
+
+	@Override
+	public boolean containsEntity(int index) {
+		return this.getOccupant(index) != EntityTable.NO_ENTITY;
+	}
+
+	/**
+	 * Gets the id of the entity on the cell. The offset in a segment is below 1GB, so it fits into an int.
+	 */
+	private int getOccupant(int index) {
+		return this.occupants[index >>> SEGMENT_SHIFT].getInt((index & SEGMENT_MASK) << 2);
+	}
+
+	private void setOccupant(int index, int id) {
+		this.occupants[index >>> SEGMENT_SHIFT].putInt((index & SEGMENT_MASK) << 2, id);
+	}
+
+	/**
+	 * Does nothing, the operating system decides which parts of the file are kept in memory
+	 */
+	@Override
+	public void trim() {
+	}
+
+	/**
+	 * Writes all changes to the file
+	 */
+	public void flush() {
+		this.header.force();
+		for(MappedByteBuffer segment : this.heights) segment.force();
+		for(MappedByteBuffer segment : this.types) segment.force();
+		for(MappedByteBuffer segment : this.occupants) segment.force();
+	}
+
+	/**
+	 * Writes all changes to the file. The mapping is released when it is garbage collected.
+	 */
+	@Override
+	public void close() {
+		this.flush();
+	}
+}
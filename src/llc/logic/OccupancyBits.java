@@ -0,0 +1,195 @@
+package llc.logic;
+
+import java.util.Arrays;
+import java.util.List;
+
+import llc.entity.Entity;
+
+/**
+ * Bitsets of the cells of a {@link Grid}, one bit per cell index (y * width + x): the walkable cells, the occupied
+ * cells and the cells occupied by each player. The grid keeps them up to date.
+ * Queries combine whole words, so 64 cells of a row are tested at once, and count with {@link Long#bitCount(long)}.
+ */
+public class OccupancyBits {
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final long[] walkable;
+	private final long[] occupied;
+	/** The occupancy of each player by player id, null for players that never had an entity on the grid */
+	private long[][] players = new long[0][];
+
+	OccupancyBits(Grid grid) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		int words = (this.width * this.height + 63) >>> 6;
+		this.walkable = new long[words];
+		this.occupied = new long[words];
+	}
+
+	void setWalkable(int index, boolean set) {
+		set(this.walkable, index, set);
+	}
+
+	void setOccupied(int index, boolean set) {
+		set(this.occupied, index, set);
+	}
+
+	/**
+	 * Sets or clears the bit of the cell in the occupancy of the entity's player, entities without a player are ignored
+	 */
+	void setOwner(int index, Entity entity, boolean set) {
+		if(entity.getPlayer() == null) return;
+		int id = entity.getPlayer().getPlayerID();
+		if(id >= this.players.length) this.players = Arrays.copyOf(this.players, id + 1);
+		if(this.players[id] == null) {
+			if(!set) return;
+			this.players[id] = new long[this.walkable.length];
+		}
+		set(this.players[id], index, set);
+	}
+
+	private static void set(long[] bits, int index, boolean set) {
+		if(set) bits[index >>> 6] |= 1L << index;
+		else bits[index >>> 6] &= ~(1L << index);
+	}
+
+	public boolean isWalkable(int index) {
+		return (this.walkable[index >>> 6] & (1L << index)) != 0;
+	}
+
+	public boolean isOccupied(int index) {
+		return (this.occupied[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Counts the cells in the rectangle that pass the filter, the bounds are inclusive and may lie outside of the grid
+	 */
+	public int count(CellFilter filter, Player player, int minX, int minY, int maxX, int maxY) {
+		long[] own = this.getOwn(player);
+		int count = 0;
+		for(int y = Math.max(minY, 0); y <= Math.min(maxY, this.height - 1); y++) count += this.countRow(filter, own, y, minX, maxX);
+		return count;
+	}
+
+	/**
+	 * Gets a cell in the rectangle that passes the filter. Together with {@link #count(CellFilter, Player, int, int, int, int)}
+	 * it picks a random cell without trying cells one by one.
+	 * @param n the number of passing cells to skip, counted row by row
+	 * @return the cell or null if less than n + 1 cells pass
+	 */
+	public Cell find(CellFilter filter, Player player, int minX, int minY, int maxX, int maxY, int n) {
+		long[] own = this.getOwn(player);
+		for(int y = Math.max(minY, 0); y <= Math.min(maxY, this.height - 1); y++) {
+			int count = this.countRow(filter, own, y, minX, maxX);
+			if(n < count) {
+				int index = this.findInRow(filter, own, y, minX, maxX, n);
+				return this.grid.getCellAt(index % this.width, index / this.width);
+			}
+			n -= count;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the cells in the rectangle that pass the filter to the list
+	 */
+	public void collect(CellFilter filter, Player player, int minX, int minY, int maxX, int maxY, List<Cell> result) {
+		long[] own = this.getOwn(player);
+		for(int y = Math.max(minY, 0); y <= Math.min(maxY, this.height - 1); y++) this.collectRow(filter, own, y, minX, maxX, result);
+	}
+
+	/**
+	 * Counts the cells within the walking distance (|dx| + |dy|) of the cell that pass the filter
+	 */
+	public int countInRange(CellFilter filter, Player player, int x, int y, int range) {
+		long[] own = this.getOwn(player);
+		int count = 0;
+		for(int row = Math.max(y - range, 0); row <= Math.min(y + range, this.height - 1); row++) {
+			int reach = range - Math.abs(row - y);
+			count += this.countRow(filter, own, row, x - reach, x + reach);
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the cells within the walking distance (|dx| + |dy|) of the cell that pass the filter to the list
+	 */
+	public void collectInRange(CellFilter filter, Player player, int x, int y, int range, List<Cell> result) {
+		long[] own = this.getOwn(player);
+		for(int row = Math.max(y - range, 0); row <= Math.min(y + range, this.height - 1); row++) {
+			int reach = range - Math.abs(row - y);
+			this.collectRow(filter, own, row, x - reach, x + reach, result);
+		}
+	}
+
+	private long[] getOwn(Player player) {
+		if(player == null) return null;
+		int id = player.getPlayerID();
+		return id < this.players.length ? this.players[id] : null;
+	}
+
+	/**
+	 * Gets the word of the bitset of the filter
+	 */
+	private long select(CellFilter filter, long[] own, int word) {
+		switch(filter) {
+			case FREE: return this.walkable[word] & ~this.occupied[word];
+			case OCCUPIED: return this.occupied[word];
+			case OWN: return own == null ? 0 : own[word];
+			default: return own == null ? this.occupied[word] : this.occupied[word] & ~own[word];
+		}
+	}
+
+	/**
+	 * Gets the word of the filter with the bits outside of the cell indices from start to end cleared
+	 */
+	private long selectMasked(CellFilter filter, long[] own, int word, int start, int end) {
+		long bits = this.select(filter, own, word);
+		if(word == start >>> 6) bits &= -1L << start;
+		if(word == end >>> 6) bits &= -1L >>> (63 - (end & 63));
+		return bits;
+	}
+
+	private int countRow(CellFilter filter, long[] own, int y, int minX, int maxX) {
+		minX = Math.max(minX, 0);
+		maxX = Math.min(maxX, this.width - 1);
+		if(minX > maxX) return 0;
+		int start = y * this.width + minX;
+		int end = y * this.width + maxX;
+		int count = 0;
+		for(int word = start >>> 6; word <= end >>> 6; word++) count += Long.bitCount(this.selectMasked(filter, own, word, start, end));
+		return count;
+	}
+
+	private int findInRow(CellFilter filter, long[] own, int y, int minX, int maxX, int n) {
+		int start = y * this.width + Math.max(minX, 0);
+		int end = y * this.width + Math.min(maxX, this.width - 1);
+		for(int word = start >>> 6; word <= end >>> 6; word++) {
+			long bits = this.selectMasked(filter, own, word, start, end);
+			int count = Long.bitCount(bits);
+			if(n < count) {
+				for(; n > 0; n--) bits &= bits - 1;
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			n -= count;
+		}
+		return -1;
+	}
+
+	private void collectRow(CellFilter filter, long[] own, int y, int minX, int maxX, List<Cell> result) {
+		minX = Math.max(minX, 0);
+		maxX = Math.min(maxX, this.width - 1);
+		if(minX > maxX) return;
+		int start = y * this.width + minX;
+		int end = y * this.width + maxX;
+		for(int word = start >>> 6; word <= end >>> 6; word++) {
+			for(long bits = this.selectMasked(filter, own, word, start, end); bits != 0; bits &= bits - 1) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+				result.add(this.grid.getCellAt(index % this.width, index / this.width));
+			}
+		}
+	}
+}
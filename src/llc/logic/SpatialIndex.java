@@ -0,0 +1,211 @@
+package llc.logic;
+
+import java.util.Arrays;
+import java.util.List;
+
+import llc.entity.Entity;
+
+/**
+ * Sorts entities into uniform buckets of {@link #BUCKET_SIZE}x{@link #BUCKET_SIZE} cells by the cell they stand on.
+ * Rectangle and radius queries only look at the buckets overlapping the area, so they take time in the size of the
+ * area in buckets plus the number of entities found, not in the number of entities or cells.
+ * Entities are referred to by their {@link EntityRegistry} id.
+ */
+public class SpatialIndex {
+
+	public static final int BUCKET_SHIFT = 3;
+	public static final int BUCKET_SIZE = 1 << BUCKET_SHIFT;
+
+	private final EntityRegistry registry;
+	private final int width;
+	private final int height;
+	private final int bucketsX;
+	private final int bucketsY;
+	/** The entity ids of each bucket, null until the first entity enters it */
+	private final int[][] buckets;
+	private final int[] bucketSizes;
+
+	/** id -> cell index (y * width + x) or -1 if the entity isn't in the index */
+	private int[] cells = new int[0];
+	/** id -> position inside its bucket */
+	private int[] positions = new int[0];
+	private int size;
+
+	public SpatialIndex(EntityRegistry registry, int width, int height) {
+		this.registry = registry;
+		this.width = width;
+		this.height = height;
+		this.bucketsX = (width + BUCKET_SIZE - 1) >> BUCKET_SHIFT;
+		this.bucketsY = (height + BUCKET_SIZE - 1) >> BUCKET_SHIFT;
+		this.buckets = new int[this.bucketsX * this.bucketsY][];
+		this.bucketSizes = new int[this.buckets.length];
+	}
+
+	/**
+	 * Puts the entity with the id on the cell, it is moved if it was already in the index
+	 */
+	public void put(int id, int x, int y) {
+		if(id >= this.cells.length) {
+			int length = Math.max(16, Math.max(id + 1, this.cells.length * 2));
+			int old = this.cells.length;
+			this.cells = Arrays.copyOf(this.cells, length);
+			this.positions = Arrays.copyOf(this.positions, length);
+			Arrays.fill(this.cells, old, length, -1);
+		}
+
+		int cell = y * this.width + x;
+		int oldCell = this.cells[id];
+		if(oldCell == cell) return;
+		int bucket = this.bucketOf(x, y);
+		if(oldCell >= 0) {
+			if(this.bucketOf(oldCell % this.width, oldCell / this.width) == bucket) {
+				this.cells[id] = cell;
+				return;
+			}
+			this.removeFromBucket(id, oldCell);
+		} else {
+			this.size++;
+		}
+
+		int[] entries = this.buckets[bucket];
+		int count = this.bucketSizes[bucket];
+		if(entries == null) entries = this.buckets[bucket] = new int[4];
+		else if(count == entries.length) entries = this.buckets[bucket] = Arrays.copyOf(entries, count * 2);
+		entries[count] = id;
+		this.positions[id] = count;
+		this.bucketSizes[bucket] = count + 1;
+		this.cells[id] = cell;
+	}
+
+	/**
+	 * Removes the entity with the id, nothing happens if it isn't in the index
+	 */
+	public void remove(int id) {
+		if(id >= this.cells.length || this.cells[id] < 0) return;
+		this.removeFromBucket(id, this.cells[id]);
+		this.cells[id] = -1;
+		this.size--;
+	}
+
+	private void removeFromBucket(int id, int cell) {
+		int bucket = this.bucketOf(cell % this.width, cell / this.width);
+		int[] entries = this.buckets[bucket];
+		int last = --this.bucketSizes[bucket];
+		int position = this.positions[id];
+		entries[position] = entries[last];
+		this.positions[entries[position]] = position;
+	}
+
+	/**
+	 * Gets the cell index (y * width + x) the entity with the id is sorted in or -1 if it isn't in the index
+	 */
+	public int getCell(int id) {
+		return id < this.cells.length ? this.cells[id] : -1;
+	}
+
+	public boolean contains(int id) {
+		return id < this.cells.length && this.cells[id] >= 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Adds the entities standing inside the rectangle to the list, the bounds are inclusive
+	 */
+	public void queryRect(int minX, int minY, int maxX, int maxY, List<Entity> result) {
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, this.width - 1);
+		maxY = Math.min(maxY, this.height - 1);
+		if(minX > maxX || minY > maxY) return;
+
+		for(int by = minY >> BUCKET_SHIFT; by <= maxY >> BUCKET_SHIFT; by++) {
+			for(int bx = minX >> BUCKET_SHIFT; bx <= maxX >> BUCKET_SHIFT; bx++) {
+				int bucket = by * this.bucketsX + bx;
+				int[] entries = this.buckets[bucket];
+				for(int i = 0; i < this.bucketSizes[bucket]; i++) {
+					int cell = this.cells[entries[i]];
+					int x = cell % this.width;
+					int y = cell / this.width;
+					if(x >= minX && x <= maxX && y >= minY && y <= maxY) result.add(this.registry.get(entries[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the entities standing within the distance of the cell to the list
+	 */
+	public void queryRadius(int centerX, int centerY, int radius, List<Entity> result) {
+		if(radius < 0) return;
+		int radiusSquared = radius * radius;
+		int minX = Math.max(centerX - radius, 0);
+		int minY = Math.max(centerY - radius, 0);
+		int maxX = Math.min(centerX + radius, this.width - 1);
+		int maxY = Math.min(centerY + radius, this.height - 1);
+		if(minX > maxX || minY > maxY) return;
+
+		for(int by = minY >> BUCKET_SHIFT; by <= maxY >> BUCKET_SHIFT; by++) {
+			for(int bx = minX >> BUCKET_SHIFT; bx <= maxX >> BUCKET_SHIFT; bx++) {
+				int bucket = by * this.bucketsX + bx;
+				int[] entries = this.buckets[bucket];
+				for(int i = 0; i < this.bucketSizes[bucket]; i++) {
+					int cell = this.cells[entries[i]];
+					int dx = cell % this.width - centerX;
+					int dy = cell / this.width - centerY;
+					if(dx * dx + dy * dy <= radiusSquared) result.add(this.registry.get(entries[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the entity closest to the cell. The buckets are searched in rings around the cell,
+	 * the search stops as soon as no bucket further out can contain a closer entity.
+	 * @param maxDistance entities further away are ignored
+	 * @return the entity or null if there is none within the distance
+	 */
+	public Entity findNearest(int x, int y, int maxDistance) {
+		if(this.size == 0) return null;
+		int centerX = x >> BUCKET_SHIFT;
+		int centerY = y >> BUCKET_SHIFT;
+		long best = (long)maxDistance * maxDistance + 1;
+		int bestId = -1;
+		int maxRing = Math.max(Math.max(centerX, this.bucketsX - 1 - centerX), Math.max(centerY, this.bucketsY - 1 - centerY));
+
+		for(int ring = 0; ring <= maxRing; ring++) {
+			// every cell in the ring is at least this far away on one axis
+			long nearest = ring == 0 ? 0 : (long)(ring - 1) * BUCKET_SIZE + 1;
+			if(nearest * nearest >= best) break;
+
+			for(int by = centerY - ring; by <= centerY + ring; by++) {
+				if(by < 0 || by >= this.bucketsY) continue;
+				boolean edge = by == centerY - ring || by == centerY + ring;
+				for(int bx = centerX - ring; bx <= centerX + ring; bx += edge ? 1 : 2 * ring) {
+					if(bx >= 0 && bx < this.bucketsX) {
+						int bucket = by * this.bucketsX + bx;
+						int[] entries = this.buckets[bucket];
+						for(int i = 0; i < this.bucketSizes[bucket]; i++) {
+							int cell = this.cells[entries[i]];
+							long dx = cell % this.width - x;
+							long dy = cell / this.width - y;
+							long distance = dx * dx + dy * dy;
+							if(distance < best) {
+								best = distance;
+								bestId = entries[i];
+							}
+						}
+					}
+					if(ring == 0) break;
+				}
+			}
+		}
+		return bestId < 0 ? null : this.registry.get(bestId);
+	}
+
+	private int bucketOf(int x, int y) {
+		return (y >> BUCKET_SHIFT) * this.bucketsX + (x >> BUCKET_SHIFT);
+	}
+}
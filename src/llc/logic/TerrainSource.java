@@ -0,0 +1,14 @@
+package llc.logic;
+
+/**
+ * The terrain a map was made of, e.g. the packed levels of its heightmap image. A {@link ChunkedGridStorage}
+ * reads the heights of untouched cells from here instead of keeping them in memory, so reads should be cheap.
+ */
+public interface TerrainSource {
+
+	/**
+	 * Gets the height of the cell, cells below 0 are solid
+	 * @return the height between 1 and -1
+	 */
+	float getTerrainHeight(int x, int y);
+}
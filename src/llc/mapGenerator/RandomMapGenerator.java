@@ -7,7 +7,14 @@ public class RandomMapGenerator {
 	
 	public static BufferedImage generateMap(int mapsize){
 		Random r = new Random();
-		PerlinNoise perlinNoise = new PerlinNoise(r.nextInt(9999));
+		return generateMap(mapsize, r.nextInt(9999));
+	}
+	
+	/**
+	 * Generates the same map for the same seed
+	 */
+	public static BufferedImage generateMap(int mapsize, int seed){
+		PerlinNoise perlinNoise = new PerlinNoise(seed);
 	    BufferedImage bitmap = new BufferedImage(mapsize, mapsize, BufferedImage.TYPE_INT_ARGB);
 		double widthDivisor = 1 / (double)mapsize;
 	    double heightDivisor = 1 / (double)mapsize;
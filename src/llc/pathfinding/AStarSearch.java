@@ -0,0 +1,129 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import llc.logic.Cell;
+import llc.logic.Grid;
+
+/**
+ * A*-search over a {@link Grid} or a {@link GridSnapshot} of it.
+ * All node data is kept in the flat arrays of a {@link PathSearchContext}, the open list is an indexed
+ * binary heap and the closed list a bitset, so a search never has to scan a list.
+ */
+public class AStarSearch {
+
+	public static final int COST = 10;
+	public static final int COST_DIAGONAL = 14;
+
+	/**
+	 * Searches the shortest path between the two cells with {@link PathCostModel#UNIFORM} costs.
+	 * The destination cell may contain an entity, every other cell of the path has to be empty.
+	 * @param graph the grid or a snapshot of it
+	 * @param context the search state, must not be used by another thread at the same time
+	 * @return the path without the start cell or null if there is none
+	 */
+	public static List<Cell> findPath(SearchGraph graph, Cell from, Cell to, PathSearchContext context) {
+		return findPath(graph, from, to, PathCostModel.UNIFORM, context);
+	}
+
+	/**
+	 * Searches the cheapest path between the two cells with the costs of the given model.
+	 * On a {@link GridSnapshot} the occupancy is read from the snapshot, the cost model still reads the cells.
+	 * @param graph the grid or a snapshot of it
+	 * @param context the search state, must not be used by another thread at the same time
+	 * @return the path without the start cell or null if there is none
+	 */
+	public static List<Cell> findPath(SearchGraph graph, Cell from, Cell to, PathCostModel costModel, PathSearchContext context) {
+		if(from == to) return null;
+
+		int width = graph.getWidth();
+		int start = from.y * width + from.x;
+		int goal = to.y * width + to.x;
+		if(!graph.isWalkable(goal)) return null;
+
+		context.begin(graph.getSize());
+		NodeHeap open = context.getOpen();
+
+		int h = costModel.estimate(from.x, from.y, to.x, to.y);
+		context.setNode(start, 0, h, start);
+		open.insert(start, key(h, h));
+
+		int[] offsets = graph.getNeighbourOffsets();
+		boolean uniform = costModel.isUniform();
+		while(!open.isEmpty()) {
+			int node = open.poll();
+			if(node == goal) return buildPath(graph, context, start, goal);
+			context.close(node);
+
+			int x = node % width;
+			int y = node / width;
+			int g = context.getG(node);
+			Cell current = uniform ? null : graph.getCell(node);
+			int neighbours = graph.getFreeNeighbours(node) | goalBit(graph.getWalkableNeighbours(node), x, y, to.x, to.y);
+			for(; neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int next = node + offsets[d];
+				if(context.isClosed(next)) continue;
+
+				int nx = x + Grid.NEIGHBOUR_DX[d];
+				int ny = y + Grid.NEIGHBOUR_DY[d];
+				int cost = g + (uniform ? stepCost(d) : costModel.getStepCost(current, graph.getCell(next)));
+				if(cost < context.getG(next)) {
+					int estimate = costModel.estimate(nx, ny, to.x, to.y);
+					int f = cost + estimate;
+					context.setNode(next, cost, f, node);
+					open.insert(next, key(f, estimate));
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Walks back the parents from the goal to build the path, without the start cell
+	 */
+	static List<Cell> buildPath(SearchGraph graph, PathSearchContext context, int start, int goal) {
+		List<Cell> path = new ArrayList<Cell>();
+		for(int node = goal; node != start; node = context.getParent(node)) path.add(graph.getCell(node));
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Gets the bit of the goal in the walkable neighbour mask of the cell, so a goal containing an entity can still be entered
+	 * @return the bit or 0 if the goal isn't a walkable neighbour
+	 */
+	static int goalBit(int walkableNeighbours, int x, int y, int goalX, int goalY) {
+		int dx = goalX - x;
+		int dy = goalY - y;
+		if(dx < -1 || dx > 1 || dy < -1 || dy > 1 || (dx == 0 && dy == 0)) return 0;
+		return walkableNeighbours & (1 << Grid.getDirection(dx, dy));
+	}
+
+	/**
+	 * Gets the cost of a step into the direction, the even directions are diagonal
+	 */
+	static int stepCost(int direction) {
+		return (direction & 1) == 0 ? COST_DIAGONAL : COST;
+	}
+
+	/**
+	 * Orders the open list by f and prefers the node closer to the destination when f is equal,
+	 * so paths through open ground are followed instead of expanding every node with the same f
+	 */
+	private static long key(int f, int estimate) {
+		return ((long)f << 32) | estimate;
+	}
+
+	/**
+	 * Gets the cost of the shortest 8-connected move over the distance on free ground
+	 */
+	public static int octile(int dx, int dy) {
+		dx = Math.abs(dx);
+		dy = Math.abs(dy);
+		return COST * Math.max(dx, dy) + (COST_DIAGONAL - COST) * Math.min(dx, dy);
+	}
+}
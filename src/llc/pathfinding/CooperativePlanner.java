@@ -0,0 +1,267 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+
+/**
+ * Plans the paths of a group of units together (windowed hierarchical cooperative A*).
+ * The units are planned one after the other with a space-time A*-search, every planned path is written into a
+ * {@link ReservationTable}, so later units neither step on a cell at the same time nor swap cells with an earlier one.
+ * Only the first window time steps are planned cooperatively, the rest of a path is searched normally. The space-time
+ * search of one unit never leaves the box of cells it can reach within the window, so its cost doesn't depend on the
+ * map size. Goals in another region are rejected before searching and the rest of a path is searched at most once
+ * per unit and plan, later searches of the unit can only continue on that rest.
+ */
+public class CooperativePlanner {
+
+	public static final int DEFAULT_WINDOW = 16;
+
+	/** Waiting one time step costs as much as a straight step */
+	private static final int WAIT_COST = AStarSearch.COST;
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int window;
+	private final ReservationTable reservations;
+	private final PathSearchContext context = new PathSearchContext();
+
+	// The group that is currently planned
+	private int[] starts;
+	private int[] goals;
+	private boolean[] excluded;
+	/** unit -> the path from the end of the window to the goal, starting with the cell at the end of the window */
+	private List<List<Cell>> rests;
+	private boolean[] restSearched;
+
+	// The box around the start of the current unit
+	private int x0, y0, boxWidth, boxSize;
+
+	public CooperativePlanner(Grid grid) {
+		this(grid, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window the number of time steps planned cooperatively
+	 */
+	public CooperativePlanner(Grid grid, int window) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.window = window;
+		this.reservations = new ReservationTable(this.width * this.height, window);
+	}
+
+	/**
+	 * Plans the paths of all units to their goals. The start cells may contain the units, the goals must be free.
+	 * @param maxMoves the number of steps every unit may move at most
+	 * @return one path per unit with the cell for every time step after the start, a repeated cell means waiting.
+	 *         Null for units that can't reach their goal with their moves, these units stay where they are.
+	 */
+	public List<List<Cell>> plan(List<Cell> starts, List<Cell> goals, int[] maxMoves) {
+		int count = starts.size();
+		this.starts = new int[count];
+		this.goals = new int[count];
+		this.excluded = new boolean[count];
+		this.rests = new ArrayList<List<Cell>>(Collections.<List<Cell>>nCopies(count, null));
+		this.restSearched = new boolean[count];
+		for(int i = 0; i < count; i++) {
+			this.starts[i] = this.toIndex(starts.get(i));
+			this.goals[i] = this.toIndex(goals.get(i));
+		}
+
+		List<List<Cell>> paths = new ArrayList<List<Cell>>(Collections.<List<Cell>>nCopies(count, null));
+		planning:
+		while(true) {
+			this.reservations.clear();
+			for(int i = 0; i < count; i++) {
+				paths.set(i, null);
+				if(!this.excluded[i]) this.reservations.reserve(this.starts[i], 0, i);
+			}
+
+			for(int i = 0; i < count; i++) {
+				if(this.excluded[i]) continue;
+				List<Cell> path = this.search(i);
+				if(path == null || countMoves(starts.get(i), path) > maxMoves[i]) {
+					// the unit stays on its cell, which blocks the others, so everything has to be planned again
+					this.excluded[i] = true;
+					continue planning;
+				}
+				paths.set(i, path);
+
+				for(int t = 0; t < path.size(); t++) this.reservations.reserve(this.toIndex(path.get(t)), t + 1, i);
+				this.reservations.reserveFrom(this.goals[i], path.size(), i);
+			}
+			return paths;
+		}
+	}
+
+	/**
+	 * Searches the space-time path of one unit that doesn't collide with the reservations
+	 */
+	private List<Cell> search(int unit) {
+		int start = this.starts[unit];
+		int goal = this.goals[unit];
+		if(start == goal || !this.mayReach(start, goal)) return null;
+
+		int startX = start % this.width;
+		int startY = start / this.width;
+		int goalX = goal % this.width;
+		int goalY = goal / this.width;
+		this.x0 = Math.max(startX - this.window, 0);
+		this.y0 = Math.max(startY - this.window, 0);
+		this.boxWidth = Math.min(startX + this.window, this.width - 1) - this.x0 + 1;
+		int boxHeight = Math.min(startY + this.window, this.height - 1) - this.y0 + 1;
+		this.boxSize = this.boxWidth * boxHeight;
+
+		this.context.begin(this.boxSize * (this.window + 1));
+		NodeHeap open = this.context.getOpen();
+
+		int startState = this.toLocal(startX, startY);
+		int h = AStarSearch.octile(goalX - startX, goalY - startY);
+		this.context.setNode(startState, 0, h, startState);
+		open.insert(startState, h);
+
+		while(!open.isEmpty()) {
+			int state = open.poll();
+			this.context.close(state);
+			int time = state / this.boxSize;
+			int local = state % this.boxSize;
+			int x = this.x0 + local % this.boxWidth;
+			int y = this.y0 + local / this.boxWidth;
+			int cell = y * this.width + x;
+
+			if(cell == goal && this.reservations.isFreeFrom(cell, time, unit)) return this.buildPath(startState, state, null);
+			if(time == this.window) {
+				List<Cell> rest = this.getRest(unit, x, y);
+				if(rest != null) return this.buildPath(startState, state, rest);
+				continue;
+			}
+
+			int g = this.context.getG(state);
+			int free = this.grid.getFreeNeighbours(cell);
+			// bit 0 stands for waiting on the cell, bit d + 1 for a step into the direction d
+			for(int moves = (this.grid.getWalkableNeighbours(cell) << 1) | 1; moves != 0; moves &= moves - 1) {
+				int d = Integer.numberOfTrailingZeros(moves) - 1;
+				int nx = d < 0 ? x : x + Grid.NEIGHBOUR_DX[d];
+				int ny = d < 0 ? y : y + Grid.NEIGHBOUR_DY[d];
+				int lx = nx - this.x0;
+				int ly = ny - this.y0;
+				if(lx < 0 || ly < 0 || lx >= this.boxWidth || ly * this.boxWidth >= this.boxSize) continue;
+
+				int next = (time + 1) * this.boxSize + ly * this.boxWidth + lx;
+				int nextCell = ny * this.width + nx;
+				if(this.context.isClosed(next)) continue;
+				if((d < 0 || (free & (1 << d)) == 0) && !this.isFree(nextCell, goal)) continue;
+				if(!this.canMove(unit, cell, nextCell, time)) continue;
+
+				int cost = g + (d < 0 ? WAIT_COST : AStarSearch.stepCost(d));
+				if(cost < this.context.getG(next)) {
+					int f = cost + AStarSearch.octile(goalX - nx, goalY - ny);
+					this.context.setNode(next, cost, f, state);
+					open.insert(next, f);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the goal is in a region the unit can get to. A unit walled in by other entities can't be checked,
+	 * the units of the group around it may move out of its way.
+	 */
+	private boolean mayReach(int start, int goal) {
+		RegionMap regions = this.grid.getRegions();
+		if(regions == null || this.grid.getFreeNeighbours(start) == 0) return true;
+		return regions.isConnected(this.grid.getCellAt(start % this.width, start / this.width), this.grid.getCellAt(goal % this.width, goal / this.width));
+	}
+
+	/**
+	 * Gets the rest of the unit's path outside of the window, it is searched without reservations.
+	 * Only the first cell at the end of the window is searched from, every later one has to lie on that rest.
+	 * @return the path from the cell to the goal without the cell or null if the cell isn't on the rest
+	 */
+	private List<Cell> getRest(int unit, int x, int y) {
+		Cell cell = this.grid.getCellAt(x, y);
+		Cell goal = this.grid.getCellAt(this.goals[unit] % this.width, this.goals[unit] / this.width);
+		if(cell == goal) return null;
+		if(!this.restSearched[unit]) {
+			this.restSearched[unit] = true;
+			List<Cell> rest = AStarSearch.findPath(this.grid, cell, goal, PathSearchContext.forCurrentThread());
+			if(rest != null) rest.add(0, cell);
+			this.rests.set(unit, rest);
+		}
+
+		List<Cell> rest = this.rests.get(unit);
+		int index = rest == null ? -1 : rest.indexOf(cell);
+		return index < 0 ? null : rest.subList(index + 1, rest.size());
+	}
+
+	/**
+	 * Checks the reservations for a step from one cell to another between the time step and the next one
+	 */
+	private boolean canMove(int unit, int from, int to, int time) {
+		int owner = this.reservations.getOwner(to, time + 1);
+		if(owner != ReservationTable.FREE && owner != unit) return false;
+		if(from == to) return true;
+
+		// two units must not swap their cells
+		int swapping = this.reservations.getOwner(to, time);
+		return swapping == ReservationTable.FREE || swapping == unit || this.reservations.getOwner(from, time + 1) != swapping;
+	}
+
+	/**
+	 * Checks if a unit may stand on the cell: it has to be walkable and empty, only the starts of the planned
+	 * units and the unit's goal may contain an entity
+	 */
+	private boolean isFree(int cell, int goal) {
+		if(this.grid.getType(cell) != CellType.WALKABLE) return false;
+		if(!this.grid.getStorage().containsEntity(cell) || cell == goal) return true;
+		for(int i = 0; i < this.starts.length; i++) if(this.starts[i] == cell && !this.excluded[i]) return true;
+		return false;
+	}
+
+	/**
+	 * Builds the path of cells for every time step, followed by the rest of the path outside of the window
+	 */
+	private List<Cell> buildPath(int startState, int endState, List<Cell> rest) {
+		List<Cell> path = new ArrayList<Cell>();
+		for(int state = endState; state != startState; state = this.context.getParent(state)) {
+			int local = state % this.boxSize;
+			path.add(this.grid.getCellAt(this.x0 + local % this.boxWidth, this.y0 + local / this.boxWidth));
+		}
+		Collections.reverse(path);
+		if(rest != null) path.addAll(rest);
+		return path;
+	}
+
+	/**
+	 * Counts the steps of the path that aren't waiting
+	 */
+	private static int countMoves(Cell start, List<Cell> path) {
+		int moves = 0;
+		Cell previous = start;
+		for(Cell cell : path) {
+			if(cell != previous) moves++;
+			previous = cell;
+		}
+		return moves;
+	}
+
+	private int toLocal(int x, int y) {
+		return (y - this.y0) * this.boxWidth + x - this.x0;
+	}
+
+	private int toIndex(Cell cell) {
+		return cell.y * this.width + cell.x;
+	}
+
+	public int getWindow() {
+		return this.window;
+	}
+}
@@ -0,0 +1,318 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+
+/**
+ * D* Lite planner for one moving entity.
+ * The search runs backwards from the destination, so the costs stay valid while the entity walks towards it.
+ * When an entity is placed on or removed from a cell, only the costs depending on that cell are repaired and
+ * the next {@link #replan(Cell)} continues from the cell the entity stands on.
+ * The search state is created on the first replan; until then the planner only watches the initial route.
+ * Only the nodes the search reaches get a slot in the state, so a replan costs memory for the searched area,
+ * not for the whole map. A replan is only needed if a cell of the route the entity hasn't passed yet gets blocked.
+ */
+public class DStarLitePlanner implements IGridListener {
+
+	private static final int INFINITY = Integer.MAX_VALUE;
+
+	private final Grid grid;
+	private final Entity owner;
+	private final Cell goal;
+	private final int width;
+	private final int goalIndex;
+	private final int[] offsets;
+
+	private List<Cell> route;
+	/** The number of route cells the entity has already passed */
+	private int passed;
+	private boolean changed;
+
+	// Search state by slot, null until the first replan
+	private SlotMap nodes;
+	private int[] g;
+	private int[] rhs;
+	private NodeHeap open;
+	private int start;
+	private int last;
+	private int km;
+
+	/**
+	 * @param owner the moving entity, the cells it occupies are no obstacles for itself
+	 * @param route the path the entity currently follows
+	 */
+	public DStarLitePlanner(Grid grid, Entity owner, Cell goal, List<Cell> route) {
+		this.grid = grid;
+		this.owner = owner;
+		this.goal = goal;
+		this.width = grid.getWidth();
+		this.goalIndex = goal.y * this.width + goal.x;
+		this.offsets = grid.getNeighbourOffsets();
+		this.route = route;
+		grid.addListener(this);
+	}
+
+	/**
+	 * Stops listening to the grid
+	 */
+	public void dispose() {
+		this.grid.removeListener(this);
+	}
+
+	@Override
+	public void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		if(oldEntity == this.owner || newEntity == this.owner || (oldEntity == null) == (newEntity == null)) return;
+		if(cell == this.goal || cell.getType() != CellType.WALKABLE) return;
+
+		if(newEntity != null && this.isAhead(cell)) this.changed = true;
+		if(this.nodes == null) return;
+
+		int v = cell.y * this.width + cell.x;
+		boolean wasFree = oldEntity == null;
+		for(int neighbours = this.grid.getWalkableNeighbours(v); neighbours != 0; neighbours &= neighbours - 1) {
+			int d = Integer.numberOfTrailingZeros(neighbours);
+			int u = v + this.offsets[d];
+			if(u == this.goalIndex) continue;
+
+			int step = stepCost(d);
+			int oldCost = wasFree ? step : INFINITY;
+			int newCost = wasFree ? INFINITY : step;
+			if(newCost < oldCost) {
+				this.setRhs(u, Math.min(this.getRhs(u), add(newCost, this.getG(v))));
+			} else if(this.getRhs(u) == add(oldCost, this.getG(v))) {
+				this.setRhs(u, this.minSuccessor(u));
+			}
+			this.updateVertex(u);
+		}
+	}
+
+	@Override
+	public void onTypeChanged(Cell cell) {
+		// the costs of the neighbours change in both directions, the next replan starts from scratch
+		this.changed = true;
+		this.nodes = null;
+	}
+
+	/**
+	 * Tells the planner that the entity reached a cell of its route, blocking the cells before it doesn't matter anymore
+	 */
+	public void reached(Cell cell) {
+		if(this.route == null) return;
+		int index = this.route.subList(this.passed, this.route.size()).indexOf(cell);
+		if(index >= 0) this.passed += index + 1;
+	}
+
+	/**
+	 * Checks if the route may have become blocked since the last replan
+	 */
+	public boolean needsReplan() {
+		return this.changed;
+	}
+
+	/**
+	 * Searches the path from the cell to the destination, reusing everything of the last search that is still valid
+	 * @return the path without the start cell or null if the destination can't be reached
+	 */
+	public List<Cell> replan(Cell from) {
+		this.changed = false;
+		long time = System.nanoTime();
+		int node = from.y * this.width + from.x;
+		if(this.nodes == null) {
+			this.initialize(node);
+		} else {
+			this.km += this.heuristic(this.last, node);
+			this.last = this.start = node;
+		}
+		this.open.resetPeakSize();
+		int expanded = this.computeShortestPath();
+		this.route = this.extractPath();
+		this.passed = 0;
+		if(PathMetrics.isEnabled()) {
+			PathMetrics.get().getQueries("dstar").record(from, this.goal, expanded, this.open.getPeakSize(), System.nanoTime() - time, this.route == null ? -1 : this.route.size());
+		}
+		return this.route;
+	}
+
+	private void initialize(int node) {
+		this.nodes = new SlotMap();
+		this.g = new int[0];
+		this.rhs = new int[0];
+		this.open = new NodeHeap(0);
+		this.last = this.start = node;
+		this.km = 0;
+
+		this.setRhs(this.goalIndex, 0);
+		this.updateVertex(this.goalIndex);
+	}
+
+	/**
+	 * @return the number of processed nodes
+	 */
+	private int computeShortestPath() {
+		int processed = 0;
+		while(!this.open.isEmpty() && (this.open.peekKey() < this.key(this.start) || this.getRhs(this.start) > this.getG(this.start))) {
+			processed++;
+			int slot = this.open.peek();
+			int u = (int)this.nodes.getKey(slot);
+			long oldKey = this.open.peekKey();
+			long newKey = this.key(u);
+
+			if(oldKey < newKey) {
+				this.open.update(slot, newKey);
+			} else if(this.g[slot] > this.rhs[slot]) {
+				int g = this.g[slot] = this.rhs[slot];
+				this.open.remove(slot);
+				int cost = this.isFree(u) ? 0 : INFINITY;
+				for(int neighbours = this.grid.getWalkableNeighbours(u); neighbours != 0; neighbours &= neighbours - 1) {
+					int d = Integer.numberOfTrailingZeros(neighbours);
+					int s = u + this.offsets[d];
+					if(s == this.goalIndex) continue;
+					this.setRhs(s, Math.min(this.getRhs(s), add(add(cost, stepCost(d)), g)));
+					this.updateVertex(s);
+				}
+			} else {
+				int oldG = this.g[slot];
+				this.g[slot] = INFINITY;
+				int cost = this.isFree(u) ? 0 : INFINITY;
+				for(int neighbours = this.grid.getWalkableNeighbours(u); neighbours != 0; neighbours &= neighbours - 1) {
+					int d = Integer.numberOfTrailingZeros(neighbours);
+					int s = u + this.offsets[d];
+					if(s == this.goalIndex) continue;
+					if(this.getRhs(s) == add(add(cost, stepCost(d)), oldG)) this.setRhs(s, this.minSuccessor(s));
+					this.updateVertex(s);
+				}
+				if(u != this.goalIndex) this.rhs[slot] = this.minSuccessor(u);
+				this.updateVertex(u);
+			}
+		}
+		return processed;
+	}
+
+	/**
+	 * Follows the lowest costs from the start to the destination
+	 */
+	private List<Cell> extractPath() {
+		if(this.getRhs(this.start) == INFINITY || this.start == this.goalIndex) return null;
+
+		List<Cell> path = new ArrayList<Cell>();
+		int node = this.start;
+		while(node != this.goalIndex) {
+			int next = -1;
+			int best = INFINITY;
+			int free = this.grid.getFreeNeighbours(node);
+			for(int neighbours = this.grid.getWalkableNeighbours(node); neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int v = node + this.offsets[d];
+				if((free & (1 << d)) == 0 && !this.isFree(v)) continue;
+				int cost = add(stepCost(d), this.getG(v));
+				if(cost < best) {
+					best = cost;
+					next = v;
+				}
+			}
+			if(next == -1 || path.size() >= this.nodes.size()) return null;
+			path.add(this.grid.getCellAt(next % this.width, next / this.width));
+			node = next;
+		}
+		return path;
+	}
+
+	private void updateVertex(int u) {
+		int slot = this.nodes.get(u);
+		if(slot < 0) return;
+		if(this.g[slot] != this.rhs[slot]) this.open.insert(slot, this.key(u));
+		else this.open.remove(slot);
+	}
+
+	private int getG(int node) {
+		int slot = this.nodes.get(node);
+		return slot < 0 ? INFINITY : this.g[slot];
+	}
+
+	private int getRhs(int node) {
+		int slot = this.nodes.get(node);
+		return slot < 0 ? INFINITY : this.rhs[slot];
+	}
+
+	/**
+	 * Sets the rhs value of the node, a node without a slot only gets one for a finite value
+	 */
+	private void setRhs(int node, int value) {
+		int slot = this.nodes.get(node);
+		if(slot < 0) {
+			if(value == INFINITY) return;
+			slot = this.nodes.add(node);
+			if(slot == this.g.length) {
+				int capacity = Math.max(slot * 2, 64);
+				this.g = Arrays.copyOf(this.g, capacity);
+				this.rhs = Arrays.copyOf(this.rhs, capacity);
+				Arrays.fill(this.g, slot, capacity, INFINITY);
+				Arrays.fill(this.rhs, slot, capacity, INFINITY);
+				this.open.ensureCapacity(capacity);
+			}
+		}
+		this.rhs[slot] = value;
+	}
+
+	/**
+	 * Gets the lowest cost of stepping from the node onto a neighbour and going on from there
+	 */
+	private int minSuccessor(int u) {
+		int min = INFINITY;
+		int free = this.grid.getFreeNeighbours(u);
+		for(int neighbours = this.grid.getWalkableNeighbours(u); neighbours != 0; neighbours &= neighbours - 1) {
+			int d = Integer.numberOfTrailingZeros(neighbours);
+			int v = u + this.offsets[d];
+			if((free & (1 << d)) != 0 || this.isFree(v)) min = Math.min(min, add(stepCost(d), this.getG(v)));
+		}
+		return min;
+	}
+
+	/**
+	 * Gets the priority of the node, the first part in the upper and the second in the lower half
+	 */
+	private long key(int node) {
+		int min = Math.min(this.getG(node), this.getRhs(node));
+		if(min == INFINITY) return Long.MAX_VALUE;
+		return ((long)(min + this.heuristic(this.start, node) + this.km) << 32) | min;
+	}
+
+	/**
+	 * Checks if the cell is on the part of the route the entity hasn't passed yet
+	 */
+	private boolean isAhead(Cell cell) {
+		return this.route != null && this.route.subList(this.passed, this.route.size()).contains(cell);
+	}
+
+	private int heuristic(int a, int b) {
+		return AStarSearch.octile(a % this.width - b % this.width, a / this.width - b / this.width);
+	}
+
+	/**
+	 * Checks if the entity may step on the cell. Cells with another entity are blocked unless they are the destination.
+	 */
+	private boolean isFree(int node) {
+		if(this.grid.getType(node) != CellType.WALKABLE) return false;
+		Entity entity = this.grid.getStorage().getEntity(node);
+		return node == this.goalIndex || entity == null || entity == this.owner;
+	}
+
+	private static int stepCost(int direction) {
+		return (direction & 1) == 0 ? AStarSearch.COST_DIAGONAL : AStarSearch.COST;
+	}
+
+	private static int add(int a, int b) {
+		return a == INFINITY || b == INFINITY ? INFINITY : a + b;
+	}
+
+	public Cell getGoal() {
+		return this.goal;
+	}
+}
@@ -0,0 +1,212 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+
+/**
+ * Distance and direction towards one target cell for every cell of the {@link Grid}.
+ * The integration field holds the cost of the shortest path to the target, the direction field the neighbour
+ * to step on next, so any number of units can follow the same field.
+ * Cells containing an entity get a value, but no path leads through them. When an entity is placed on or
+ * removed from a cell, only the part of the field depending on that cell is repaired.
+ */
+public class FlowField {
+
+	public static final int INFINITY = Integer.MAX_VALUE;
+	public static final int NO_DIRECTION = -1;
+
+	/** The x offset of each direction, the same directions as the neighbour masks of the {@link Grid} */
+	public static final int[] DX = Grid.NEIGHBOUR_DX;
+	/** The y offset of each direction */
+	public static final int[] DY = Grid.NEIGHBOUR_DY;
+
+	private final Grid grid;
+	private final Cell target;
+	private final int width;
+	private final int height;
+	private final int[] offsets;
+
+	private final int[] cost;
+	private final byte[] direction;
+	private final NodeHeap open;
+
+	/**
+	 * Computes the field towards the target
+	 */
+	public FlowField(Grid grid, Cell target) {
+		this.grid = grid;
+		this.target = target;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.offsets = grid.getNeighbourOffsets();
+
+		int size = this.width * this.height;
+		this.cost = new int[size];
+		this.direction = new byte[size];
+		this.open = new NodeHeap(size);
+		this.rebuild();
+	}
+
+	/**
+	 * Computes the whole field from scratch
+	 */
+	public void rebuild() {
+		Arrays.fill(this.cost, INFINITY);
+		Arrays.fill(this.direction, (byte)NO_DIRECTION);
+		if(this.target.getType() != CellType.WALKABLE) return;
+
+		int start = this.target.y * this.width + this.target.x;
+		this.cost[start] = 0;
+		this.open.insert(start, 0);
+		this.propagate();
+	}
+
+	/**
+	 * Repairs the field after the entity on the cell changed
+	 * @param wasOccupied if there was an entity on the cell before
+	 */
+	public void onOccupancyChanged(Cell cell, boolean wasOccupied) {
+		if(cell == this.target || cell.getType() != CellType.WALKABLE || wasOccupied == cell.containsEntity()) return;
+
+		int index = cell.y * this.width + cell.x;
+		if(wasOccupied) {
+			// the cell relays again, its neighbours may get cheaper
+			if(this.cost[index] == INFINITY) return;
+			this.open.insert(index, this.cost[index]);
+		} else {
+			this.invalidateDependents(index);
+		}
+		this.propagate();
+	}
+
+	/**
+	 * Resets every cell whose path leads over the now blocked cell and seeds them again from their valid neighbours
+	 */
+	private void invalidateDependents(int blocked) {
+		List<Integer> dependents = new ArrayList<Integer>();
+		this.collectChildren(blocked, dependents);
+		for(int i = 0; i < dependents.size(); i++) this.collectChildren(dependents.get(i), dependents);
+		if(dependents.isEmpty()) return;
+
+		for(int i = 0; i < dependents.size(); i++) {
+			int node = dependents.get(i);
+			this.cost[node] = INFINITY;
+			this.direction[node] = NO_DIRECTION;
+		}
+		for(int i = 0; i < dependents.size(); i++) {
+			int node = dependents.get(i);
+			for(int neighbours = this.grid.getWalkableNeighbours(node); neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int neighbour = node + this.offsets[d];
+				if(this.cost[neighbour] == INFINITY || !this.relays(neighbour)) continue;
+
+				int newCost = this.cost[neighbour] + stepCost(d);
+				if(newCost < this.cost[node]) {
+					this.cost[node] = newCost;
+					this.direction[node] = (byte)d;
+				}
+			}
+			if(this.cost[node] != INFINITY) this.open.insert(node, this.cost[node]);
+		}
+	}
+
+	/**
+	 * Adds all cells whose direction points to the node
+	 */
+	private void collectChildren(int node, List<Integer> out) {
+		for(int neighbours = this.grid.getWalkableNeighbours(node); neighbours != 0; neighbours &= neighbours - 1) {
+			int d = Integer.numberOfTrailingZeros(neighbours);
+			int neighbour = node + this.offsets[d];
+			// the neighbour points back at us with the opposite direction
+			if(this.direction[neighbour] == ((d + 4) & 7) && this.cost[neighbour] != INFINITY) out.add(neighbour);
+		}
+	}
+
+	/**
+	 * Runs Dijkstra from the cells in the open list
+	 */
+	private void propagate() {
+		while(!this.open.isEmpty()) {
+			int node = this.open.poll();
+			if(!this.relays(node)) continue;
+
+			int nodeCost = this.cost[node];
+			for(int neighbours = this.grid.getWalkableNeighbours(node); neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int neighbour = node + this.offsets[d];
+				int newCost = nodeCost + stepCost(d);
+				if(newCost < this.cost[neighbour]) {
+					this.cost[neighbour] = newCost;
+					// the neighbour has to step in the opposite direction to get here
+					this.direction[neighbour] = (byte)((d + 4) & 7);
+					this.open.insert(neighbour, newCost);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if paths may lead over the cell, occupied cells are only end points
+	 */
+	private boolean relays(int node) {
+		return node == this.target.getIndex() || !this.grid.getStorage().containsEntity(node);
+	}
+
+	private static int stepCost(int direction) {
+		return (direction & 1) == 0 ? AStarSearch.COST_DIAGONAL : AStarSearch.COST;
+	}
+
+	public Cell getTarget() {
+		return this.target;
+	}
+
+	/**
+	 * Gets the cost of the shortest path from the cell to the target or {@link #INFINITY}
+	 */
+	public int getCost(int x, int y) {
+		return this.cost[y * this.width + x];
+	}
+
+	public boolean isReachable(int x, int y) {
+		return this.cost[y * this.width + x] != INFINITY;
+	}
+
+	/**
+	 * Gets the direction to step on from the cell, an index into {@link #DX} and {@link #DY}
+	 * @return the direction or {@link #NO_DIRECTION} at the target and on unreachable cells
+	 */
+	public int getDirection(int x, int y) {
+		return this.direction[y * this.width + x];
+	}
+
+	/**
+	 * Gets the neighbour to step on from the cell
+	 * @return the next cell or null
+	 */
+	public Cell getNextCell(Cell cell) {
+		int d = this.getDirection(cell.x, cell.y);
+		return d == NO_DIRECTION ? null : this.grid.getCellAt(cell.x + DX[d], cell.y + DY[d]);
+	}
+
+	/**
+	 * Follows the directions from the cell to the target
+	 * @return the path without the start cell or null if the target can't be reached
+	 */
+	public List<Cell> getPath(Cell from) {
+		if(from == this.target || !this.isReachable(from.x, from.y)) return null;
+
+		List<Cell> path = new ArrayList<Cell>();
+		Cell cell = from;
+		while(cell != this.target) {
+			cell = this.getNextCell(cell);
+			if(cell == null) return null;
+			path.add(cell);
+		}
+		return path;
+	}
+}
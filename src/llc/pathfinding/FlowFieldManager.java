@@ -0,0 +1,57 @@
+package llc.pathfinding;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+import llc.logic.Player;
+
+/**
+ * Holds one {@link FlowField} towards the town hall of every player.
+ * The fields are created on first use and repaired whenever an entity moves on or off a cell.
+ */
+public class FlowFieldManager implements IGridListener {
+
+	private final Grid grid;
+	private final Map<Player, FlowField> fields = new HashMap<Player, FlowField>();
+
+	public FlowFieldManager(Grid grid) {
+		this.grid = grid;
+		grid.addListener(this);
+	}
+
+	/**
+	 * Stops listening to the grid
+	 */
+	public void dispose() {
+		this.grid.removeListener(this);
+		this.fields.clear();
+	}
+
+	@Override
+	public void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		if((oldEntity == null) == (newEntity == null)) return;
+		for(FlowField field : this.fields.values()) field.onOccupancyChanged(cell, oldEntity != null);
+	}
+
+	@Override
+	public void onTypeChanged(Cell cell) {
+		// the fields are built again when they are used the next time
+		this.fields.clear();
+	}
+
+	/**
+	 * Gets the field leading to the town hall of the player
+	 */
+	public FlowField getField(Player player) {
+		FlowField field = this.fields.get(player);
+		if(field == null || field.getTarget() != player.getTownHall()) {
+			field = new FlowField(this.grid, player.getTownHall());
+			this.fields.put(player, field);
+		}
+		return field;
+	}
+}
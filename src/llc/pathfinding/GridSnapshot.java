@@ -0,0 +1,180 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.logic.OccupancyBits;
+
+/**
+ * An immutable copy of the walkability and occupancy of a {@link Grid}, stored as one flag byte per cell.
+ * Searches on a snapshot can run on any thread while the game keeps changing the grid.
+ * The cells are stored in blocks; a snapshot {@link #update(Grid, int[], int) updated} from an older one
+ * shares all blocks without a changed cell with it.
+ */
+public class GridSnapshot implements SearchGraph {
+
+	private static final byte WALKABLE = 1;
+	private static final byte OCCUPIED = 2;
+
+	private static final int BLOCK_SHIFT = 12;
+	private static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int version;
+	private final byte[][] flags;
+	private final byte[][] walkableNeighbours;
+	private final byte[][] freeNeighbours;
+	private final int[] neighbourOffsets;
+
+	private GridSnapshot(Grid grid) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.version = grid.getVersion();
+		this.neighbourOffsets = grid.getNeighbourOffsets();
+		int size = this.width * this.height;
+		int blocks = (size + BLOCK_MASK) >>> BLOCK_SHIFT;
+		this.flags = new byte[blocks][];
+		this.walkableNeighbours = new byte[blocks][];
+		this.freeNeighbours = new byte[blocks][];
+		for(int block = 0; block < blocks; block++) {
+			int length = Math.min(BLOCK_MASK + 1, size - (block << BLOCK_SHIFT));
+			this.flags[block] = new byte[length];
+			this.walkableNeighbours[block] = new byte[length];
+			this.freeNeighbours[block] = new byte[length];
+			this.copyBlock(block);
+		}
+	}
+
+	private GridSnapshot(Grid grid, GridSnapshot older) {
+		this.grid = grid;
+		this.width = older.width;
+		this.height = older.height;
+		this.version = grid.getVersion();
+		this.neighbourOffsets = older.neighbourOffsets;
+		this.flags = older.flags.clone();
+		this.walkableNeighbours = older.walkableNeighbours.clone();
+		this.freeNeighbours = older.freeNeighbours.clone();
+	}
+
+	/**
+	 * Copies the current state of the grid. Must be called on the thread that changes the grid.
+	 */
+	public static GridSnapshot of(Grid grid) {
+		return new GridSnapshot(grid);
+	}
+
+	/**
+	 * Copies the current state of the grid, taking everything but the blocks of the changed cells and their
+	 * neighbours from this snapshot. Must be called on the thread that changes the grid.
+	 * @param changed the indices of the cells changed since this snapshot was taken
+	 */
+	public GridSnapshot update(Grid grid, int[] changed, int count) {
+		GridSnapshot snapshot = new GridSnapshot(grid, this);
+		boolean[] copied = new boolean[this.flags.length];
+		for(int i = 0; i < count; i++) {
+			int index = changed[i];
+			snapshot.refresh(index, copied);
+			// the masks of the neighbours point at the cell
+			for(int d = 0; d < this.neighbourOffsets.length; d++) {
+				int x = index % this.width + Grid.NEIGHBOUR_DX[d];
+				int y = index / this.width + Grid.NEIGHBOUR_DY[d];
+				if(x >= 0 && y >= 0 && x < this.width && y < this.height) snapshot.refresh(index + this.neighbourOffsets[d], copied);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reads the cell from the grid again, the block of the cell is copied first if it is still shared
+	 */
+	private void refresh(int index, boolean[] copied) {
+		int block = index >>> BLOCK_SHIFT;
+		if(!copied[block]) {
+			copied[block] = true;
+			this.flags[block] = new byte[this.flags[block].length];
+			this.walkableNeighbours[block] = new byte[this.flags[block].length];
+			this.freeNeighbours[block] = new byte[this.flags[block].length];
+			this.copyBlock(block);
+			return;
+		}
+		this.flags[block][index & BLOCK_MASK] = flag(this.grid.getOccupancy(), index);
+		this.walkableNeighbours[block][index & BLOCK_MASK] = (byte)this.grid.getWalkableNeighbours(index);
+		this.freeNeighbours[block][index & BLOCK_MASK] = (byte)this.grid.getFreeNeighbours(index);
+	}
+
+	private void copyBlock(int block) {
+		int start = block << BLOCK_SHIFT;
+		this.grid.copyNeighbourMasks(start, this.walkableNeighbours[block], this.freeNeighbours[block]);
+		OccupancyBits occupancy = this.grid.getOccupancy();
+		byte[] flags = this.flags[block];
+		for(int i = 0; i < flags.length; i++) flags[i] = flag(occupancy, start + i);
+	}
+
+	private static byte flag(OccupancyBits occupancy, int index) {
+		byte flag = 0;
+		if(occupancy.isWalkable(index)) flag |= WALKABLE;
+		if(occupancy.isOccupied(index)) flag |= OCCUPIED;
+		return flag;
+	}
+
+	@Override
+	public boolean isWalkable(int node) {
+		return (this.flags[node >>> BLOCK_SHIFT][node & BLOCK_MASK] & WALKABLE) != 0;
+	}
+
+	public boolean isOccupied(int node) {
+		return (this.flags[node >>> BLOCK_SHIFT][node & BLOCK_MASK] & OCCUPIED) != 0;
+	}
+
+	/**
+	 * Gets the mask of the walkable neighbours of the node, see {@link Grid#getWalkableNeighbours(int)}
+	 */
+	@Override
+	public int getWalkableNeighbours(int node) {
+		return this.walkableNeighbours[node >>> BLOCK_SHIFT][node & BLOCK_MASK] & 0xFF;
+	}
+
+	/**
+	 * Gets the mask of the free neighbours of the node, see {@link Grid#getFreeNeighbours(int)}
+	 */
+	@Override
+	public int getFreeNeighbours(int node) {
+		return this.freeNeighbours[node >>> BLOCK_SHIFT][node & BLOCK_MASK] & 0xFF;
+	}
+
+	@Override
+	public int[] getNeighbourOffsets() {
+		return this.neighbourOffsets;
+	}
+
+	/**
+	 * Gets the cell of the node index (y * width + x)
+	 */
+	@Override
+	public Cell getCell(int node) {
+		return this.grid.getCellAt(node % this.width, node / this.width);
+	}
+
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+
+	@Override
+	public int getSize() {
+		return this.width * this.height;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets the occupancy version of the grid at the time the snapshot was taken
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+}
@@ -0,0 +1,650 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+
+/**
+ * Hierarchical pathfinding (HPA*) over a {@link Grid}.
+ * The grid is split into square clusters. Where two clusters touch, entrances are placed on the free cells
+ * of the border and the distances between all entrances of a cluster are precomputed. A query first searches
+ * this small abstract graph and then only refines the chosen route cluster by cluster.
+ * When the entity on a cell changes, only the affected borders and clusters are rebuilt before the next query.
+ * Not thread-safe, use it from the game thread only.
+ */
+public class HierarchicalPathFinder implements IGridListener {
+
+	public static final int DEFAULT_CLUSTER_SIZE = 16;
+	private static final int BORDER_VERTICAL = 0;
+	private static final int BORDER_HORIZONTAL = 1;
+	private static final int BORDER_CORNER = 2;
+	/** Border segments at least this long get an entrance at both ends instead of one in the middle */
+	private static final int MIN_DOUBLE_ENTRANCE_LENGTH = 6;
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int clusterSize;
+	private final int clustersX;
+	private final int clustersY;
+
+	private final Cluster[] clusters;
+	/** Borders between (cx, cy) and (cx + 1, cy), index cy * (clustersX - 1) + cx */
+	private final Border[] verticalBorders;
+	/** Borders between (cx, cy) and (cx, cy + 1), index cy * clustersX + cx */
+	private final Border[] horizontalBorders;
+	/** Corners between (cx, cy) and (cx + 1, cy + 1), index cy * (clustersX - 1) + cx */
+	private final Border[] cornerBorders;
+	private final List<Border> dirtyBorders = new ArrayList<Border>();
+	private final List<Cluster> dirtyClusters = new ArrayList<Cluster>();
+
+	/** The abstract node on each cell, null if the cell is no entrance */
+	private final Node[] nodes;
+	private final PathSearchContext context = new PathSearchContext();
+
+	// Edges of the temporary start and goal nodes of the current query
+	private int[] startEdgeCells = new int[16];
+	private int[] startEdgeCosts = new int[16];
+	private int startEdgeCount;
+	private int[] goalEdgeCells = new int[16];
+	private int[] goalEdgeCosts = new int[16];
+	private int goalEdgeCount;
+
+	public HierarchicalPathFinder(Grid grid) {
+		this(grid, DEFAULT_CLUSTER_SIZE);
+	}
+
+	public HierarchicalPathFinder(Grid grid, int clusterSize) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.clusterSize = clusterSize;
+		this.clustersX = (this.width + clusterSize - 1) / clusterSize;
+		this.clustersY = (this.height + clusterSize - 1) / clusterSize;
+		this.nodes = new Node[this.width * this.height];
+
+		this.clusters = new Cluster[this.clustersX * this.clustersY];
+		for(int cy = 0; cy < this.clustersY; cy++) {
+			for(int cx = 0; cx < this.clustersX; cx++) {
+				Cluster cluster = new Cluster(cx * clusterSize, cy * clusterSize,
+						Math.min((cx + 1) * clusterSize, this.width) - 1, Math.min((cy + 1) * clusterSize, this.height) - 1);
+				this.clusters[cy * this.clustersX + cx] = cluster;
+				this.markDirty(cluster);
+			}
+		}
+
+		this.verticalBorders = new Border[Math.max(this.clustersX - 1, 0) * this.clustersY];
+		this.horizontalBorders = new Border[this.clustersX * Math.max(this.clustersY - 1, 0)];
+		this.cornerBorders = new Border[Math.max(this.clustersX - 1, 0) * Math.max(this.clustersY - 1, 0)];
+		for(int cy = 0; cy < this.clustersY; cy++) {
+			for(int cx = 0; cx < this.clustersX; cx++) {
+				Cluster cluster = this.getCluster(cx, cy);
+				if(cx < this.clustersX - 1) this.verticalBorders[cy * (this.clustersX - 1) + cx] = new Border(BORDER_VERTICAL, cluster);
+				if(cy < this.clustersY - 1) this.horizontalBorders[cy * this.clustersX + cx] = new Border(BORDER_HORIZONTAL, cluster);
+				if(cx < this.clustersX - 1 && cy < this.clustersY - 1) this.cornerBorders[cy * (this.clustersX - 1) + cx] = new Border(BORDER_CORNER, cluster);
+			}
+		}
+		for(Border border : this.verticalBorders) this.markDirty(border);
+		for(Border border : this.horizontalBorders) this.markDirty(border);
+		for(Border border : this.cornerBorders) this.markDirty(border);
+
+		grid.addListener(this);
+	}
+
+	/**
+	 * Stops listening to the grid. The path finder must not be used afterwards.
+	 */
+	public void dispose() {
+		this.grid.removeListener(this);
+	}
+
+	@Override
+	public void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		this.markDirty(cell.x, cell.y);
+	}
+
+	@Override
+	public void onTypeChanged(Cell cell) {
+		this.markDirty(cell.x, cell.y);
+	}
+
+	/**
+	 * Marks the cluster of the cell and the borders beside it for a rebuild
+	 */
+	private void markDirty(int x, int y) {
+		int cx = x / this.clusterSize;
+		int cy = y / this.clusterSize;
+		int lx = x % this.clusterSize;
+		int ly = y % this.clusterSize;
+		this.markDirty(this.getCluster(cx, cy));
+
+		// Borders look at the cells on both of their sides
+		if(lx == this.clusterSize - 1 && cx < this.clustersX - 1) this.markDirty(this.verticalBorders[cy * (this.clustersX - 1) + cx]);
+		if(lx == 0 && cx > 0) this.markDirty(this.verticalBorders[cy * (this.clustersX - 1) + cx - 1]);
+		if(ly == this.clusterSize - 1 && cy < this.clustersY - 1) this.markDirty(this.horizontalBorders[cy * this.clustersX + cx]);
+		if(ly == 0 && cy > 0) this.markDirty(this.horizontalBorders[(cy - 1) * this.clustersX + cx]);
+		for(int ccy = cy - 1; ccy <= cy; ccy++) {
+			for(int ccx = cx - 1; ccx <= cx; ccx++) {
+				if(ccx < 0 || ccy < 0 || ccx >= this.clustersX - 1 || ccy >= this.clustersY - 1) continue;
+				int cornerX = (ccx + 1) * this.clusterSize;
+				int cornerY = (ccy + 1) * this.clusterSize;
+				if(x >= cornerX - 1 && x <= cornerX && y >= cornerY - 1 && y <= cornerY) this.markDirty(this.cornerBorders[ccy * (this.clustersX - 1) + ccx]);
+			}
+		}
+	}
+
+	/**
+	 * Searches a path between two cells. The destination cell may contain an entity.
+	 * The path is close to the shortest one, but may take small detours over the cluster entrances.
+	 * @return the path without the start cell or null if the destination can't be reached
+	 */
+	public List<Cell> findPath(Cell from, Cell to) {
+		if(!PathMetrics.isEnabled()) return this.search(from, to);
+
+		this.context.beginQuery();
+		long start = System.nanoTime();
+		List<Cell> path = this.search(from, to);
+		PathMetrics.get().getQueries("hierarchical").record(from, to, this.context, System.nanoTime() - start, path);
+		return path;
+	}
+
+	private List<Cell> search(Cell from, Cell to) {
+		if(from == to || to.getType() != CellType.WALKABLE) return null;
+		if(this.grid.getRegions() != null && !this.grid.getRegions().isConnected(from, to)) return null;
+		this.refresh();
+
+		int start = from.y * this.width + from.x;
+		int goal = to.y * this.width + to.x;
+		int direct = this.connectStart(from, to);
+		this.connectGoal(to);
+
+		int[] abstractPath = this.searchAbstract(start, goal, direct);
+		if(abstractPath == null) return null;
+
+		List<Cell> path = new ArrayList<Cell>();
+		for(int i = 1; i < abstractPath.length; i++) {
+			if(!this.refine(abstractPath[i - 1], abstractPath[i], goal, path)) return AStarSearch.findPath(this.grid, from, to, this.context);
+		}
+		return path;
+	}
+
+	/**
+	 * Gets the number of entrances in the abstract graph
+	 */
+	public int getNodeCount() {
+		this.refresh();
+		int count = 0;
+		for(Cluster cluster : this.clusters) count += cluster.nodes.size();
+		return count;
+	}
+
+	/**
+	 * Rebuilds the borders and clusters that changed since the last query
+	 */
+	private void refresh() {
+		for(int i = 0; i < this.dirtyBorders.size(); i++) this.dirtyBorders.get(i).rebuild();
+		this.dirtyBorders.clear();
+		for(int i = 0; i < this.dirtyClusters.size(); i++) this.dirtyClusters.get(i).rebuild();
+		this.dirtyClusters.clear();
+	}
+
+	private void markDirty(Border border) {
+		if(!border.dirty) {
+			border.dirty = true;
+			this.dirtyBorders.add(border);
+		}
+	}
+
+	private void markDirty(Cluster cluster) {
+		if(!cluster.dirty) {
+			cluster.dirty = true;
+			this.dirtyClusters.add(cluster);
+		}
+	}
+
+	/**
+	 * Computes the edges from the start cell to the entrances it can reach without passing another entrance
+	 * @return the cost of a direct path to the goal or {@link PathSearchContext#INFINITY}
+	 */
+	private int connectStart(Cell from, Cell to) {
+		int goal = to.y * this.width + to.x;
+		int direct = PathSearchContext.INFINITY;
+		this.startEdgeCount = 0;
+
+		direct = Math.min(direct, this.connect(from.x, from.y, 0, goal, true));
+		Cluster home = this.getClusterAt(from.x, from.y);
+		for(int dy = -1; dy <= 1; dy++) {
+			for(int dx = -1; dx <= 1; dx++) {
+				int x = from.x + dx;
+				int y = from.y + dy;
+				if((dx == 0 && dy == 0) || x < 0 || y < 0 || x >= this.width || y >= this.height || this.getClusterAt(x, y) == home) continue;
+
+				int step = dx != 0 && dy != 0 ? AStarSearch.COST_DIAGONAL : AStarSearch.COST;
+				if(y * this.width + x == goal) {
+					if(this.isWalkable(x, y)) direct = Math.min(direct, step);
+				} else if(this.isFree(x, y)) {
+					direct = Math.min(direct, this.connect(x, y, step, goal, true));
+				}
+			}
+		}
+		return direct;
+	}
+
+	/**
+	 * Computes the edges from the entrances to the goal cell
+	 */
+	private void connectGoal(Cell to) {
+		this.goalEdgeCount = 0;
+
+		this.connect(to.x, to.y, 0, -1, false);
+		Cluster home = this.getClusterAt(to.x, to.y);
+		for(int dy = -1; dy <= 1; dy++) {
+			for(int dx = -1; dx <= 1; dx++) {
+				int x = to.x + dx;
+				int y = to.y + dy;
+				if((dx == 0 && dy == 0) || x < 0 || y < 0 || x >= this.width || y >= this.height || this.getClusterAt(x, y) == home) continue;
+				if(this.isFree(x, y)) this.connect(x, y, dx != 0 && dy != 0 ? AStarSearch.COST_DIAGONAL : AStarSearch.COST, -1, false);
+			}
+		}
+	}
+
+	/**
+	 * Floods the cluster of the seed cell and adds edges to every entrance that was reached
+	 * @return the cost to the goal if it was inside the cluster
+	 */
+	private int connect(int seedX, int seedY, int seedCost, int goal, boolean startSide) {
+		Cluster cluster = this.getClusterAt(seedX, seedY);
+		this.searchRect(cluster.x0, cluster.y0, cluster.x1, cluster.y1, seedX, seedY, -1, goal);
+
+		int rectWidth = cluster.x1 - cluster.x0 + 1;
+		for(int i = 0; i < cluster.nodes.size(); i++) {
+			Node node = cluster.nodes.get(i);
+			int g = this.context.getG((node.cell / this.width - cluster.y0) * rectWidth + node.cell % this.width - cluster.x0);
+			if(g == PathSearchContext.INFINITY) continue;
+			if(startSide) this.addStartEdge(node.cell, g + seedCost);
+			else this.addGoalEdge(node.cell, g + seedCost);
+		}
+
+		if(goal >= 0 && this.getClusterAt(goal % this.width, goal / this.width) == cluster) {
+			int g = this.context.getG((goal / this.width - cluster.y0) * rectWidth + goal % this.width - cluster.x0);
+			if(g != PathSearchContext.INFINITY) return g + seedCost;
+		}
+		return PathSearchContext.INFINITY;
+	}
+
+	private void addStartEdge(int cell, int cost) {
+		for(int i = 0; i < this.startEdgeCount; i++) {
+			if(this.startEdgeCells[i] == cell) {
+				this.startEdgeCosts[i] = Math.min(this.startEdgeCosts[i], cost);
+				return;
+			}
+		}
+		if(this.startEdgeCount == this.startEdgeCells.length) {
+			this.startEdgeCells = Arrays.copyOf(this.startEdgeCells, this.startEdgeCount * 2);
+			this.startEdgeCosts = Arrays.copyOf(this.startEdgeCosts, this.startEdgeCount * 2);
+		}
+		this.startEdgeCells[this.startEdgeCount] = cell;
+		this.startEdgeCosts[this.startEdgeCount++] = cost;
+	}
+
+	private void addGoalEdge(int cell, int cost) {
+		for(int i = 0; i < this.goalEdgeCount; i++) {
+			if(this.goalEdgeCells[i] == cell) {
+				this.goalEdgeCosts[i] = Math.min(this.goalEdgeCosts[i], cost);
+				return;
+			}
+		}
+		if(this.goalEdgeCount == this.goalEdgeCells.length) {
+			this.goalEdgeCells = Arrays.copyOf(this.goalEdgeCells, this.goalEdgeCount * 2);
+			this.goalEdgeCosts = Arrays.copyOf(this.goalEdgeCosts, this.goalEdgeCount * 2);
+		}
+		this.goalEdgeCells[this.goalEdgeCount] = cell;
+		this.goalEdgeCosts[this.goalEdgeCount++] = cost;
+	}
+
+	/**
+	 * A*-search on the abstract graph, nodes are identified by their cell index
+	 * @return the cells of the abstract path including start and goal or null
+	 */
+	private int[] searchAbstract(int start, int goal, int direct) {
+		this.context.begin(this.width * this.height);
+		NodeHeap open = this.context.getOpen();
+		int goalX = goal % this.width;
+		int goalY = goal / this.width;
+
+		int h = AStarSearch.octile(start % this.width - goalX, start / this.width - goalY);
+		this.context.setNode(start, 0, h, start);
+		open.insert(start, h);
+
+		while(!open.isEmpty()) {
+			int cell = open.poll();
+			if(cell == goal) {
+				int length = 1;
+				for(int c = goal; c != start; c = this.context.getParent(c)) length++;
+				int[] path = new int[length];
+				for(int c = goal; length > 0; c = this.context.getParent(c)) path[--length] = c;
+				return path;
+			}
+			this.context.close(cell);
+			int g = this.context.getG(cell);
+
+			if(cell == start) {
+				for(int i = 0; i < this.startEdgeCount; i++) this.relax(cell, this.startEdgeCells[i], g + this.startEdgeCosts[i], goalX, goalY);
+				if(direct != PathSearchContext.INFINITY) this.relax(cell, goal, g + direct, goalX, goalY);
+			}
+
+			Node node = this.nodes[cell];
+			if(node == null) continue;
+			for(int i = 0; i < node.transitions.size(); i++) {
+				Transition transition = node.transitions.get(i);
+				this.relax(cell, transition.other(node).cell, g + transition.cost, goalX, goalY);
+			}
+			for(int i = 0; i < node.intraCells.length; i++) this.relax(cell, node.intraCells[i], g + node.intraCosts[i], goalX, goalY);
+			for(int i = 0; i < this.goalEdgeCount; i++) {
+				if(this.goalEdgeCells[i] == cell) this.relax(cell, goal, g + this.goalEdgeCosts[i], goalX, goalY);
+			}
+		}
+		return null;
+	}
+
+	private void relax(int from, int to, int cost, int goalX, int goalY) {
+		if(this.context.isClosed(to) || cost >= this.context.getG(to)) return;
+		int f = cost + AStarSearch.octile(to % this.width - goalX, to / this.width - goalY);
+		this.context.setNode(to, cost, f, from);
+		this.context.getOpen().insert(to, f);
+	}
+
+	/**
+	 * Adds the cells between two consecutive abstract nodes to the path
+	 * @return false if the segment could not be refined
+	 */
+	private boolean refine(int from, int to, int goal, List<Cell> path) {
+		int fromX = from % this.width;
+		int fromY = from / this.width;
+		int toX = to % this.width;
+		int toY = to / this.width;
+		if(Math.abs(fromX - toX) <= 1 && Math.abs(fromY - toY) <= 1) {
+			path.add(this.grid.getCellAt(toX, toY));
+			return true;
+		}
+
+		// segments to and from the temporary nodes may pass a neighbouring cluster
+		Cluster a = this.getClusterAt(fromX, fromY);
+		Cluster b = this.getClusterAt(toX, toY);
+		int x0 = Math.min(a.x0, b.x0);
+		int y0 = Math.min(a.y0, b.y0);
+		int x1 = Math.max(a.x1, b.x1);
+		int y1 = Math.max(a.y1, b.y1);
+		if(!this.searchRect(x0, y0, x1, y1, fromX, fromY, to, goal)) return false;
+
+		int rectWidth = x1 - x0 + 1;
+		int startLocal = (fromY - y0) * rectWidth + fromX - x0;
+		int first = path.size();
+		for(int local = (toY - y0) * rectWidth + toX - x0; local != startLocal; local = this.context.getParent(local)) {
+			path.add(this.grid.getCellAt(x0 + local % rectWidth, y0 + local / rectWidth));
+		}
+		Collections.reverse(path.subList(first, path.size()));
+		return true;
+	}
+
+	/**
+	 * Searches inside a rectangle of the grid. The context is indexed relative to the rectangle.
+	 * @param target the cell to search for, -1 to visit every reachable cell
+	 * @param goal the goal of the query, may be entered even if it contains an entity
+	 * @return true if the target was reached
+	 */
+	private boolean searchRect(int x0, int y0, int x1, int y1, int fromX, int fromY, int target, int goal) {
+		int rectWidth = x1 - x0 + 1;
+		this.context.begin(rectWidth * (y1 - y0 + 1));
+		NodeHeap open = this.context.getOpen();
+		int targetX = target % this.width;
+		int targetY = target / this.width;
+
+		int start = (fromY - y0) * rectWidth + fromX - x0;
+		int h = target >= 0 ? AStarSearch.octile(fromX - targetX, fromY - targetY) : 0;
+		this.context.setNode(start, 0, h, start);
+		open.insert(start, h);
+
+		while(!open.isEmpty()) {
+			int node = open.poll();
+			this.context.close(node);
+			int x = x0 + node % rectWidth;
+			int y = y0 + node / rectWidth;
+			int cell = y * this.width + x;
+			if(cell == target) return true;
+			// an occupied goal can be entered, but no path leads through it
+			if(cell == goal && node != start && !this.isFree(x, y)) continue;
+
+			int g = this.context.getG(node);
+			int neighbours = this.grid.getFreeNeighbours(cell);
+			if(goal >= 0) neighbours |= AStarSearch.goalBit(this.grid.getWalkableNeighbours(cell), x, y, goal % this.width, goal / this.width);
+			for(; neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int nx = x + Grid.NEIGHBOUR_DX[d];
+				int ny = y + Grid.NEIGHBOUR_DY[d];
+				if(nx < x0 || nx > x1 || ny < y0 || ny > y1) continue;
+
+				int next = (ny - y0) * rectWidth + nx - x0;
+				if(this.context.isClosed(next)) continue;
+
+				int cost = g + AStarSearch.stepCost(d);
+				if(cost < this.context.getG(next)) {
+					int f = cost + (target >= 0 ? AStarSearch.octile(nx - targetX, ny - targetY) : 0);
+					this.context.setNode(next, cost, f, node);
+					open.insert(next, f);
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isWalkable(int x, int y) {
+		return this.grid.getType(y * this.width + x) == CellType.WALKABLE;
+	}
+
+	private boolean isFree(int x, int y) {
+		return this.grid.isFree(y * this.width + x);
+	}
+
+	private Cluster getCluster(int cx, int cy) {
+		return this.clusters[cy * this.clustersX + cx];
+	}
+
+	private Cluster getClusterAt(int x, int y) {
+		return this.getCluster(x / this.clusterSize, y / this.clusterSize);
+	}
+
+	/**
+	 * Gets the entrance node on the cell, creates it if there is none
+	 */
+	private Node acquireNode(int x, int y) {
+		int cell = y * this.width + x;
+		Node node = this.nodes[cell];
+		if(node == null) {
+			node = new Node(cell, this.getClusterAt(x, y));
+			this.nodes[cell] = node;
+			node.cluster.nodes.add(node);
+			this.markDirty(node.cluster);
+		}
+		node.references++;
+		return node;
+	}
+
+	private void releaseNode(Node node) {
+		if(--node.references == 0) {
+			this.nodes[node.cell] = null;
+			node.cluster.nodes.remove(node);
+			this.markDirty(node.cluster);
+		}
+	}
+
+	/**
+	 * An entrance cell of a cluster
+	 */
+	private static class Node {
+		final int cell;
+		final Cluster cluster;
+		/** The number of transitions using this node */
+		int references;
+		final List<Transition> transitions = new ArrayList<Transition>(2);
+		int[] intraCells = new int[0];
+		int[] intraCosts = new int[0];
+
+		Node(int cell, Cluster cluster) {
+			this.cell = cell;
+			this.cluster = cluster;
+		}
+	}
+
+	/**
+	 * A step between two entrances of neighbouring clusters
+	 */
+	private static class Transition {
+		final Node a;
+		final Node b;
+		final int cost;
+
+		Transition(Node a, Node b, int cost) {
+			this.a = a;
+			this.b = b;
+			this.cost = cost;
+		}
+
+		Node other(Node node) {
+			return node == this.a ? this.b : this.a;
+		}
+	}
+
+	private class Cluster {
+		final int x0, y0, x1, y1;
+		final List<Node> nodes = new ArrayList<Node>();
+		boolean dirty;
+
+		Cluster(int x0, int y0, int x1, int y1) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+		}
+
+		/**
+		 * Recomputes the distances between all entrances of the cluster
+		 */
+		void rebuild() {
+			this.dirty = false;
+			int rectWidth = this.x1 - this.x0 + 1;
+			for(Node node : this.nodes) {
+				searchRect(this.x0, this.y0, this.x1, this.y1, node.cell % width, node.cell / width, -1, -1);
+
+				int count = 0;
+				int[] cells = new int[this.nodes.size()];
+				int[] costs = new int[this.nodes.size()];
+				for(Node other : this.nodes) {
+					if(other == node) continue;
+					int g = context.getG((other.cell / width - this.y0) * rectWidth + other.cell % width - this.x0);
+					if(g == PathSearchContext.INFINITY) continue;
+					cells[count] = other.cell;
+					costs[count++] = g;
+				}
+				node.intraCells = Arrays.copyOf(cells, count);
+				node.intraCosts = Arrays.copyOf(costs, count);
+			}
+		}
+	}
+
+	/**
+	 * The transitions between two neighbouring clusters
+	 */
+	private class Border {
+		final int type;
+		/** The cluster on the left / top side of the border */
+		final Cluster cluster;
+		final List<Transition> transitions = new ArrayList<Transition>();
+		boolean dirty;
+
+		Border(int type, Cluster cluster) {
+			this.type = type;
+			this.cluster = cluster;
+		}
+
+		void rebuild() {
+			this.dirty = false;
+			for(Transition transition : this.transitions) {
+				transition.a.transitions.remove(transition);
+				transition.b.transitions.remove(transition);
+				releaseNode(transition.a);
+				releaseNode(transition.b);
+			}
+			this.transitions.clear();
+
+			if(this.type == BORDER_CORNER) {
+				int x = this.cluster.x1;
+				int y = this.cluster.y1;
+				// diagonal crossings are only needed if both cells beside them are blocked
+				HierarchicalPathFinder finder = HierarchicalPathFinder.this;
+				if(finder.isFree(x, y) && finder.isFree(x + 1, y + 1) && !finder.isFree(x + 1, y) && !finder.isFree(x, y + 1)) this.connect(x, y, x + 1, y + 1, AStarSearch.COST_DIAGONAL);
+				if(finder.isFree(x + 1, y) && finder.isFree(x, y + 1) && !finder.isFree(x, y) && !finder.isFree(x + 1, y + 1)) this.connect(x + 1, y, x, y + 1, AStarSearch.COST_DIAGONAL);
+				return;
+			}
+
+			boolean vertical = this.type == BORDER_VERTICAL;
+			int line = vertical ? this.cluster.x1 : this.cluster.y1;
+			int first = vertical ? this.cluster.y0 : this.cluster.x0;
+			int last = vertical ? this.cluster.y1 : this.cluster.x1;
+			int segmentStart = -1;
+			for(int i = first; i <= last + 1; i++) {
+				boolean open = i <= last && this.isFree(line, i) && this.isFree(line + 1, i);
+				if(open && segmentStart < 0) {
+					segmentStart = i;
+				} else if(!open && segmentStart >= 0) {
+					int segmentEnd = i - 1;
+					if(segmentEnd - segmentStart + 1 < MIN_DOUBLE_ENTRANCE_LENGTH) {
+						this.connectStraight(line, (segmentStart + segmentEnd) / 2);
+					} else {
+						this.connectStraight(line, segmentStart);
+						this.connectStraight(line, segmentEnd);
+					}
+					segmentStart = -1;
+				}
+
+				if(!open && i < last) {
+					if(this.isFree(line, i) && !this.isFree(line + 1, i) && this.isFree(line + 1, i + 1) && !this.isFree(line, i + 1)) this.connectCells(line, i, line + 1, i + 1);
+					if(!this.isFree(line, i) && this.isFree(line + 1, i) && this.isFree(line, i + 1) && !this.isFree(line + 1, i + 1)) this.connectCells(line, i + 1, line + 1, i);
+				}
+			}
+		}
+
+		/**
+		 * Checks a cell given relative to the border: line across, position along the border
+		 */
+		private boolean isFree(int line, int position) {
+			return this.type == BORDER_VERTICAL ? HierarchicalPathFinder.this.isFree(line, position) : HierarchicalPathFinder.this.isFree(position, line);
+		}
+
+		private void connectStraight(int line, int position) {
+			this.connectCells(line, position, line + 1, position);
+		}
+
+		private void connectCells(int lineA, int positionA, int lineB, int positionB) {
+			int cost = positionA == positionB ? AStarSearch.COST : AStarSearch.COST_DIAGONAL;
+			if(this.type == BORDER_VERTICAL) this.connect(lineA, positionA, lineB, positionB, cost);
+			else this.connect(positionA, lineA, positionB, lineB, cost);
+		}
+
+		private void connect(int xa, int ya, int xb, int yb, int cost) {
+			Node a = acquireNode(xa, ya);
+			Node b = acquireNode(xb, yb);
+			Transition transition = new Transition(a, b, cost);
+			a.transitions.add(transition);
+			b.transitions.add(transition);
+			this.transitions.add(transition);
+		}
+	}
+}
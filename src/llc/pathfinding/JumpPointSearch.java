@@ -0,0 +1,229 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+
+/**
+ * Jump Point Search over a {@link Grid}.
+ * Works like {@link AStarSearch} but only puts jump points into the open list: straight and diagonal runs
+ * over free cells are skipped until a cell with a forced neighbour is found. This only works because every
+ * step on the grid has the same cost, so it always returns paths as short as the ones of the A*-search.
+ * Cells containing an entity are obstacles, except for the destination cell.
+ */
+public class JumpPointSearch {
+
+	/**
+	 * Searches the shortest path between the two cells.
+	 * @param context the search state, must not be used by another thread at the same time
+	 * @return the path without the start cell or null if there is none
+	 */
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, PathSearchContext context) {
+		if(from == to) return null;
+		return new JumpPointSearch(grid, to, context).search(from);
+	}
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private final int goalX;
+	private final int goalY;
+	private final PathSearchContext context;
+
+	private JumpPointSearch(Grid grid, Cell to, PathSearchContext context) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.goalX = to.x;
+		this.goalY = to.y;
+		this.context = context;
+	}
+
+	private List<Cell> search(Cell from) {
+		int start = from.y * this.width + from.x;
+		int goal = this.goalY * this.width + this.goalX;
+
+		this.context.begin(this.width * this.height);
+		NodeHeap open = this.context.getOpen();
+
+		int h = this.heuristic(from.x, from.y);
+		this.context.setNode(start, 0, h, start);
+		open.insert(start, h);
+
+		int[] successors = new int[16];
+		while(!open.isEmpty()) {
+			int node = open.poll();
+			if(node == goal) return this.buildPath(start, goal);
+			this.context.close(node);
+
+			int x = node % this.width;
+			int y = node / this.width;
+			int g = this.context.getG(node);
+			int count = this.prunedNeighbours(node, x, y, start, successors);
+			for(int i = 0; i < count; i += 2) {
+				int dx = successors[i];
+				int dy = successors[i + 1];
+				int jumpPoint = this.jump(x + dx, y + dy, dx, dy);
+				if(jumpPoint == -1 || this.context.isClosed(jumpPoint)) continue;
+
+				int jx = jumpPoint % this.width;
+				int jy = jumpPoint / this.width;
+				int cost = g + AStarSearch.octile(jx - x, jy - y);
+				if(cost < this.context.getG(jumpPoint)) {
+					int f = cost + this.heuristic(jx, jy);
+					this.context.setNode(jumpPoint, cost, f, node);
+					open.insert(jumpPoint, f);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes the directions worth searching from the node into the array as (dx, dy) pairs
+	 * @return the number of written values
+	 */
+	private int prunedNeighbours(int node, int x, int y, int start, int[] out) {
+		int free = this.freeNeighbours(x, y);
+		int count = 0;
+		if(node == start) {
+			for(; free != 0; free &= free - 1) {
+				int d = Integer.numberOfTrailingZeros(free);
+				out[count++] = Grid.NEIGHBOUR_DX[d];
+				out[count++] = Grid.NEIGHBOUR_DY[d];
+			}
+			return count;
+		}
+
+		int parent = this.context.getParent(node);
+		int dx = Integer.signum(x - parent % this.width);
+		int dy = Integer.signum(y - parent / this.width);
+
+		if(dx != 0 && dy != 0) {
+			if(has(free, 0, dy)) { out[count++] = 0; out[count++] = dy; }
+			if(has(free, dx, 0)) { out[count++] = dx; out[count++] = 0; }
+			if(has(free, dx, dy)) { out[count++] = dx; out[count++] = dy; }
+			if(!has(free, -dx, 0) && has(free, -dx, dy)) { out[count++] = -dx; out[count++] = dy; }
+			if(!has(free, 0, -dy) && has(free, dx, -dy)) { out[count++] = dx; out[count++] = -dy; }
+		} else if(dx != 0) {
+			if(has(free, dx, 0)) { out[count++] = dx; out[count++] = 0; }
+			if(!has(free, 0, 1) && has(free, dx, 1)) { out[count++] = dx; out[count++] = 1; }
+			if(!has(free, 0, -1) && has(free, dx, -1)) { out[count++] = dx; out[count++] = -1; }
+		} else {
+			if(has(free, 0, dy)) { out[count++] = 0; out[count++] = dy; }
+			if(!has(free, 1, 0) && has(free, 1, dy)) { out[count++] = 1; out[count++] = dy; }
+			if(!has(free, -1, 0) && has(free, -1, dy)) { out[count++] = -1; out[count++] = dy; }
+		}
+		return count;
+	}
+
+	/**
+	 * Moves from (x, y) into the given direction until a jump point is found
+	 * @return the index of the jump point or -1 if the run ends at an obstacle
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		if(dx != 0 && dy != 0) {
+			if(!this.isFree(x, y)) return -1;
+			int forward = 1 << Grid.getDirection(dx, dy);
+			while(true) {
+				if(this.isGoal(x, y)) return y * this.width + x;
+				int free = this.freeNeighbours(x, y);
+				if((has(free, -dx, dy) && !has(free, -dx, 0)) || (has(free, dx, -dy) && !has(free, 0, -dy))) return y * this.width + x;
+				if((has(free, dx, 0) && this.jumpStraight(x + dx, y, dx, 0) != -1) || (has(free, 0, dy) && this.jumpStraight(x, y + dy, 0, dy) != -1)) return y * this.width + x;
+				if((free & forward) == 0) return -1;
+				x += dx;
+				y += dy;
+			}
+		}
+		if(!this.isFree(x, y)) return -1;
+		return this.jumpStraight(x, y, dx, dy);
+	}
+
+	/**
+	 * Runs straight from the free cell (x, y) until a jump point is found
+	 */
+	private int jumpStraight(int x, int y, int dx, int dy) {
+		// a side neighbour that is free while the cell next to it is blocked is a forced neighbour
+		int forward = 1 << Grid.getDirection(dx, dy);
+		int leftAhead, left, rightAhead, right;
+		if(dx != 0) {
+			leftAhead = 1 << Grid.getDirection(dx, 1);
+			left = 1 << Grid.getDirection(0, 1);
+			rightAhead = 1 << Grid.getDirection(dx, -1);
+			right = 1 << Grid.getDirection(0, -1);
+		} else {
+			leftAhead = 1 << Grid.getDirection(1, dy);
+			left = 1 << Grid.getDirection(1, 0);
+			rightAhead = 1 << Grid.getDirection(-1, dy);
+			right = 1 << Grid.getDirection(-1, 0);
+		}
+
+		while(true) {
+			if(this.isGoal(x, y)) return y * this.width + x;
+			int free = this.freeNeighbours(x, y);
+			if(((free & leftAhead) != 0 && (free & left) == 0) || ((free & rightAhead) != 0 && (free & right) == 0)) return y * this.width + x;
+			if((free & forward) == 0) return -1;
+			x += dx;
+			y += dy;
+		}
+	}
+
+	/**
+	 * Gets the mask of the neighbours a path may lead over, including the destination even if it contains an entity
+	 */
+	private int freeNeighbours(int x, int y) {
+		int node = y * this.width + x;
+		return this.grid.getFreeNeighbours(node) | AStarSearch.goalBit(this.grid.getWalkableNeighbours(node), x, y, this.goalX, this.goalY);
+	}
+
+	private static boolean has(int mask, int dx, int dy) {
+		return (mask & (1 << Grid.getDirection(dx, dy))) != 0;
+	}
+
+	/**
+	 * Checks if a path may lead over the cell. Cells with an entity are blocked unless they are the destination.
+	 */
+	private boolean isFree(int x, int y) {
+		if(x < 0 || y < 0 || x >= this.width || y >= this.height) return false;
+		int index = y * this.width + x;
+		return this.grid.getType(index) == CellType.WALKABLE && (!this.grid.getStorage().containsEntity(index) || this.isGoal(x, y));
+	}
+
+	private boolean isGoal(int x, int y) {
+		return x == this.goalX && y == this.goalY;
+	}
+
+	/**
+	 * Builds the cell path by filling the straight or diagonal runs between the jump points
+	 */
+	private List<Cell> buildPath(int start, int goal) {
+		List<Cell> path = new ArrayList<Cell>();
+		int node = goal;
+		while(node != start) {
+			int parent = this.context.getParent(node);
+			int x = node % this.width;
+			int y = node / this.width;
+			int px = parent % this.width;
+			int py = parent / this.width;
+			int dx = Integer.signum(px - x);
+			int dy = Integer.signum(py - y);
+			while(x != px || y != py) {
+				path.add(this.grid.getCellAt(x, y));
+				x += dx;
+				y += dy;
+			}
+			node = parent;
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	private int heuristic(int x, int y) {
+		return AStarSearch.octile(this.goalX - x, this.goalY - y);
+	}
+}
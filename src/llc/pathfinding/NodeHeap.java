@@ -0,0 +1,195 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap over node indices (y * width + x).
+ * Every node can be in the heap only once, so its key can be lowered in O(log n)
+ * instead of adding a duplicate entry.
+ */
+public class NodeHeap {
+
+	/** heap position -> node */
+	private int[] heap;
+	/** node -> heap position + 1, 0 if the node is not in the heap */
+	private int[] position;
+	/** node -> key */
+	private long[] keys;
+	private int size;
+	/** The largest size since the last {@link #resetPeakSize()} */
+	private int peakSize;
+
+	/**
+	 * @param capacity the number of nodes (cells) that can be stored
+	 */
+	public NodeHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.position = new int[capacity];
+		this.keys = new long[capacity];
+	}
+
+	/**
+	 * Grows the heap so it can hold the given amount of nodes, the nodes in the heap stay in there
+	 */
+	public void ensureCapacity(int capacity) {
+		if(this.position.length < capacity) {
+			this.heap = Arrays.copyOf(this.heap, capacity);
+			this.position = Arrays.copyOf(this.position, capacity);
+			this.keys = Arrays.copyOf(this.keys, capacity);
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Gets the largest number of nodes that were in the heap at the same time since the last {@link #resetPeakSize()}
+	 */
+	public int getPeakSize() {
+		return this.peakSize;
+	}
+
+	public void resetPeakSize() {
+		this.peakSize = this.size;
+	}
+
+	/**
+	 * Checks if the node is currently in the heap
+	 */
+	public boolean contains(int node) {
+		return this.position[node] != 0;
+	}
+
+	/**
+	 * Gets the key of a node that is in the heap
+	 */
+	public long getKey(int node) {
+		return this.keys[node];
+	}
+
+	/**
+	 * Adds the node or updates its key if it already is in the heap
+	 */
+	public void insert(int node, long key) {
+		if(this.contains(node)) {
+			this.update(node, key);
+			return;
+		}
+		this.keys[node] = key;
+		this.heap[this.size] = node;
+		this.position[node] = this.size + 1;
+		this.size++;
+		if(this.size > this.peakSize) this.peakSize = this.size;
+		this.siftUp(this.size - 1);
+	}
+
+	/**
+	 * Changes the key of a node that is in the heap
+	 */
+	public void update(int node, long key) {
+		long old = this.keys[node];
+		this.keys[node] = key;
+		if(key < old) this.siftUp(this.position[node] - 1);
+		else if(key > old) this.siftDown(this.position[node] - 1);
+	}
+
+	/**
+	 * Gets the node with the lowest key without removing it
+	 */
+	public int peek() {
+		return this.heap[0];
+	}
+
+	/**
+	 * Gets the lowest key in the heap
+	 */
+	public long peekKey() {
+		return this.keys[this.heap[0]];
+	}
+
+	/**
+	 * Removes and returns the node with the lowest key
+	 */
+	public int poll() {
+		int node = this.heap[0];
+		this.removeAt(0);
+		return node;
+	}
+
+	/**
+	 * Removes the node from the heap if it is in there
+	 */
+	public void remove(int node) {
+		if(this.contains(node)) this.removeAt(this.position[node] - 1);
+	}
+
+	/**
+	 * Removes all nodes. Only touches the entries that are actually in the heap.
+	 */
+	public void clear() {
+		for(int i = 0; i < this.size; i++) this.position[this.heap[i]] = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Clears the heap by wiping the whole index, cheaper than {@link #clear()} for very full heaps
+	 */
+	public void reset() {
+		Arrays.fill(this.position, 0);
+		this.size = 0;
+	}
+
+	private void removeAt(int i) {
+		int node = this.heap[i];
+		this.position[node] = 0;
+		this.size--;
+		if(i == this.size) return;
+
+		int last = this.heap[this.size];
+		this.heap[i] = last;
+		this.position[last] = i + 1;
+		this.siftDown(i);
+		this.siftUp(this.position[last] - 1);
+	}
+
+	private void siftUp(int i) {
+		int node = this.heap[i];
+		long key = this.keys[node];
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			int parentNode = this.heap[parent];
+			if(this.keys[parentNode] <= key) break;
+			this.heap[i] = parentNode;
+			this.position[parentNode] = i + 1;
+			i = parent;
+		}
+		this.heap[i] = node;
+		this.position[node] = i + 1;
+	}
+
+	private void siftDown(int i) {
+		int node = this.heap[i];
+		long key = this.keys[node];
+		int half = this.size >>> 1;
+		while(i < half) {
+			int child = 2 * i + 1;
+			int childNode = this.heap[child];
+			int right = child + 1;
+			if(right < this.size && this.keys[this.heap[right]] < this.keys[childNode]) {
+				child = right;
+				childNode = this.heap[right];
+			}
+			if(key <= this.keys[childNode]) break;
+			this.heap[i] = childNode;
+			this.position[childNode] = i + 1;
+			i = child;
+		}
+		this.heap[i] = node;
+		this.position[node] = i + 1;
+	}
+}
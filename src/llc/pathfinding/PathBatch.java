@@ -0,0 +1,146 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.util.PathFinder;
+
+/**
+ * Runs many independent path queries in parallel on a {@link ForkJoinPool}.
+ * All queries of a batch are searched on the same {@link GridSnapshot}, every worker thread uses its own
+ * {@link PathSearchContext}. The workers keep the measurements of their queries apart, they are added to the
+ * {@link PathMetrics} at once when the batch is done.
+ */
+public class PathBatch {
+
+	/** Ranges with at most this many queries are searched by a single task */
+	private static final int QUERIES_PER_TASK = 2;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a batch runner with one worker per available processor
+	 */
+	public PathBatch() {
+		this(new ForkJoinPool());
+	}
+
+	public PathBatch(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Searches the paths on a snapshot of the current grid
+	 * @see #findPaths(GridSnapshot, List)
+	 */
+	public List<List<Cell>> findPaths(Grid grid, List<PathQuery> queries) {
+		return this.findPaths(GridSnapshot.of(grid), queries);
+	}
+
+	/**
+	 * Searches the paths with the costs of the {@link PathFinder}
+	 * @see #findPaths(GridSnapshot, List, PathCostModel)
+	 */
+	public List<List<Cell>> findPaths(GridSnapshot snapshot, List<PathQuery> queries) {
+		return this.findPaths(snapshot, queries, PathFinder.getCostModel());
+	}
+
+	/**
+	 * Searches the cheapest path for every query. Blocks until all of them are done.
+	 * @return the paths in the order of the queries, null for every query without a path
+	 */
+	public List<List<Cell>> findPaths(GridSnapshot snapshot, List<PathQuery> queries, PathCostModel costModel) {
+		PathQuery[] input = queries.toArray(new PathQuery[queries.size()]);
+		@SuppressWarnings("unchecked")
+		List<Cell>[] results = (List<Cell>[])new List<?>[input.length];
+		if(input.length == 0) return Arrays.asList(results);
+
+		Measurements measurements = PathMetrics.isEnabled() ? new Measurements(input.length) : null;
+		this.pool.invoke(new SearchTask(snapshot, costModel, input, results, measurements, 0, input.length));
+		if(measurements != null) {
+			PathMetrics.QueryMetrics metrics = new PathMetrics.QueryMetrics();
+			for(int i = 0; i < input.length; i++) {
+				metrics.record(input[i].from, input[i].to, measurements.nodes[i], measurements.openPeaks[i], measurements.nanos[i], results[i] == null ? -1 : results[i].size());
+			}
+			PathMetrics.get().getQueries("batch").add(metrics);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * The measurements of the queries of a batch, every query has its own slot
+	 */
+	private static class Measurements {
+
+		final int[] nodes;
+		final int[] openPeaks;
+		final long[] nanos;
+
+		Measurements(int queries) {
+			this.nodes = new int[queries];
+			this.openPeaks = new int[queries];
+			this.nanos = new long[queries];
+		}
+	}
+
+	/**
+	 * Searches a range of queries, splitting it in halves until it is small enough
+	 */
+	private static class SearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final GridSnapshot snapshot;
+		private final PathCostModel costModel;
+		private final PathQuery[] queries;
+		private final List<Cell>[] results;
+		/** null if the queries aren't measured */
+		private final Measurements measurements;
+		private final int from, to;
+
+		SearchTask(GridSnapshot snapshot, PathCostModel costModel, PathQuery[] queries, List<Cell>[] results, Measurements measurements, int from, int to) {
+			this.snapshot = snapshot;
+			this.costModel = costModel;
+			this.queries = queries;
+			this.results = results;
+			this.measurements = measurements;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.to - this.from <= QUERIES_PER_TASK) {
+				PathSearchContext context = PathSearchContext.forCurrentThread();
+				for(int i = this.from; i < this.to; i++) {
+					PathQuery query = this.queries[i];
+					if(this.measurements == null) {
+						this.results[i] = AStarSearch.findPath(this.snapshot, query.from, query.to, this.costModel, context);
+						continue;
+					}
+					context.beginQuery();
+					long start = System.nanoTime();
+					this.results[i] = AStarSearch.findPath(this.snapshot, query.from, query.to, this.costModel, context);
+					this.measurements.nanos[i] = System.nanoTime() - start;
+					this.measurements.nodes[i] = context.getQueryExpandedNodes();
+					this.measurements.openPeaks[i] = context.getOpen().getPeakSize();
+				}
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new SearchTask(this.snapshot, this.costModel, this.queries, this.results, this.measurements, this.from, middle),
+					new SearchTask(this.snapshot, this.costModel, this.queries, this.results, this.measurements, middle, this.to));
+		}
+	}
+}
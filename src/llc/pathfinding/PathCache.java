@@ -0,0 +1,101 @@
+package llc.pathfinding;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.util.PathFinder;
+
+/**
+ * Caches found paths by start cell, destination cell and occupancy version of the {@link Grid}.
+ * Asking for the same path again is free until an entity moves; the least recently used paths are
+ * dropped when the cache is full. Not thread-safe.
+ */
+public class PathCache {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final Grid grid;
+	private final Map<Long, Entry> entries;
+
+	private long hits;
+	private long misses;
+
+	public PathCache(Grid grid) {
+		this(grid, DEFAULT_CAPACITY);
+	}
+
+	public PathCache(Grid grid, final int capacity) {
+		this.grid = grid;
+		this.entries = new LinkedHashMap<Long, Entry>(capacity * 4 / 3 + 1, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the path between the cells, searches it if it isn't cached
+	 * @return the unmodifiable path without the start cell or null if there is none
+	 */
+	public List<Cell> findPath(Cell from, Cell to) {
+		Long key = this.key(from, to);
+		Entry entry = this.entries.get(key);
+		if(entry != null && entry.version == this.grid.getVersion()) {
+			this.hits++;
+			if(PathMetrics.isEnabled()) PathMetrics.get().getCounter("cache.hits").incrementAndGet();
+			return entry.path;
+		}
+
+		this.misses++;
+		if(PathMetrics.isEnabled()) PathMetrics.get().getCounter("cache.misses").incrementAndGet();
+		List<Cell> path = this.search(from, to);
+		if(path != null) path = Collections.unmodifiableList(path);
+		this.entries.put(key, new Entry(this.grid.getVersion(), path));
+		return path;
+	}
+
+	/**
+	 * Searches a path that isn't cached, uses the {@link PathFinder} by default
+	 */
+	protected List<Cell> search(Cell from, Cell to) {
+		return PathFinder.findPath(this.grid, from, to);
+	}
+
+	public void clear() {
+		this.entries.clear();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	public long getHits() {
+		return this.hits;
+	}
+
+	public long getMisses() {
+		return this.misses;
+	}
+
+	private Long key(Cell from, Cell to) {
+		int width = this.grid.getWidth();
+		return ((long)(from.y * width + from.x) << 32) | (to.y * width + to.x);
+	}
+
+	private static class Entry {
+		final int version;
+		final List<Cell> path;
+
+		Entry(int version, List<Cell> path) {
+			this.version = version;
+			this.path = path;
+		}
+	}
+}
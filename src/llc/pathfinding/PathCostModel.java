@@ -0,0 +1,29 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+
+/**
+ * Decides what a step between two neighbouring cells costs and estimates the remaining cost to the destination.
+ * The estimate must never be higher than the real cost and must not drop by more than the cost of a step,
+ * otherwise the A*-search doesn't find the shortest path anymore.
+ */
+public interface PathCostModel {
+
+	/** Every straight step costs {@link AStarSearch#COST}, every diagonal step {@link AStarSearch#COST_DIAGONAL} */
+	PathCostModel UNIFORM = new UniformCostModel();
+
+	/**
+	 * Gets the cost of stepping from the cell onto a neighbouring cell
+	 */
+	int getStepCost(Cell from, Cell to);
+
+	/**
+	 * Estimates the cost of the cheapest path between the two positions
+	 */
+	int estimate(int fromX, int fromY, int toX, int toY);
+
+	/**
+	 * Checks if every step costs the same as with {@link #UNIFORM}, searches like {@link JumpPointSearch} depend on it
+	 */
+	boolean isUniform();
+}
@@ -0,0 +1,238 @@
+package llc.pathfinding;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import llc.logic.Cell;
+import llc.util.Histogram;
+
+/**
+ * Registry of the pathfinding metrics of the running game.
+ * Every kind of query (A*, Jump Point Search, hierarchical, reachability floods, ...) has its own {@link QueryMetrics}
+ * with histograms of the expanded nodes, the peak size of the open list, the time and the result length, and
+ * remembers its slowest queries so bad positions on a map can be found again. Counters hold everything that
+ * isn't a search, like cache hits. All methods are thread-safe.
+ */
+public class PathMetrics {
+
+	private static final PathMetrics instance = new PathMetrics();
+
+	private static volatile boolean enabled = true;
+
+	private final ConcurrentMap<String, QueryMetrics> queries = new ConcurrentHashMap<String, QueryMetrics>();
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Gets the registry the path searches report to
+	 */
+	public static PathMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * Checks if queries should be measured, searches skip taking the time when this is false
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		PathMetrics.enabled = enabled;
+	}
+
+	/**
+	 * Gets the metrics of a kind of query, creates them on first use
+	 */
+	public QueryMetrics getQueries(String name) {
+		QueryMetrics metrics = this.queries.get(name);
+		if(metrics == null) {
+			QueryMetrics created = new QueryMetrics();
+			metrics = this.queries.putIfAbsent(name, created);
+			if(metrics == null) metrics = created;
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets a counter, creates it on first use
+	 */
+	public AtomicLong getCounter(String name) {
+		AtomicLong counter = this.counters.get(name);
+		if(counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = this.counters.putIfAbsent(name, created);
+			if(counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	/**
+	 * Checks if nothing was recorded since the last reset
+	 */
+	public boolean isEmpty() {
+		for(QueryMetrics metrics : this.queries.values()) if(metrics.getCount() > 0) return false;
+		for(AtomicLong counter : this.counters.values()) if(counter.get() > 0) return false;
+		return true;
+	}
+
+	/**
+	 * Clears all metrics, called when a new game starts
+	 */
+	public void reset() {
+		for(QueryMetrics metrics : this.queries.values()) metrics.reset();
+		for(AtomicLong counter : this.counters.values()) counter.set(0);
+	}
+
+	/**
+	 * Writes a summary of all metrics
+	 */
+	public void dump(PrintWriter out) {
+		out.println(String.format(Locale.ROOT, "%-16s %9s %8s  %-10s %12s %12s %12s %12s %12s", "query", "count", "failed", "metric", "mean", "p50", "p90", "p99", "max"));
+		for(Map.Entry<String, QueryMetrics> entry : new TreeMap<String, QueryMetrics>(this.queries).entrySet()) entry.getValue().dump(entry.getKey(), out);
+		out.println();
+		for(Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(this.counters).entrySet()) out.println(entry.getKey() + " = " + entry.getValue().get());
+		out.println();
+		for(Map.Entry<String, QueryMetrics> entry : new TreeMap<String, QueryMetrics>(this.queries).entrySet()) entry.getValue().dumpSlowest(entry.getKey(), out);
+		out.flush();
+	}
+
+	/**
+	 * Writes a summary of all metrics into the file
+	 */
+	public void dump(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			this.dump(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The metrics of one kind of query
+	 */
+	public static class QueryMetrics {
+
+		/** The number of slowest queries that are remembered */
+		public static final int SLOWEST = 10;
+
+		private final Histogram nodes = new Histogram();
+		private final Histogram openPeak = new Histogram();
+		private final Histogram time = new Histogram();
+		private final Histogram length = new Histogram();
+		private long failures;
+		private final List<Query> slowest = new ArrayList<Query>();
+
+		/**
+		 * Records a search that used the context
+		 * @param path the result of the search, null if it failed
+		 */
+		public void record(Cell from, Cell to, PathSearchContext context, long nanos, List<Cell> path) {
+			this.record(from, to, context.getQueryExpandedNodes(), context.getOpen().getPeakSize(), nanos, path == null ? -1 : path.size());
+		}
+
+		/**
+		 * Records a query
+		 * @param to the destination or null if the query has none, like a flood
+		 * @param length the number of cells of the result or -1 if the query failed
+		 */
+		public synchronized void record(Cell from, Cell to, int nodes, int openPeak, long nanos, int length) {
+			this.nodes.record(nodes);
+			this.openPeak.record(openPeak);
+			this.time.record(nanos);
+			if(length < 0) this.failures++;
+			else this.length.record(length);
+
+			if(this.slowest.size() < SLOWEST || nanos > this.slowest.get(this.slowest.size() - 1).nanos) this.addSlowest(new Query(from, to, nodes, nanos, length));
+		}
+
+		private void addSlowest(Query query) {
+			if(this.slowest.size() >= SLOWEST && query.nanos <= this.slowest.get(this.slowest.size() - 1).nanos) return;
+			int i = this.slowest.size();
+			while(i > 0 && this.slowest.get(i - 1).nanos < query.nanos) i--;
+			this.slowest.add(i, query);
+			if(this.slowest.size() > SLOWEST) this.slowest.remove(SLOWEST);
+		}
+
+		/**
+		 * Adds everything recorded by the other metrics, which must not be changed by another thread meanwhile.
+		 * Workers record into metrics of their own and add them at the end, so they don't wait for each other.
+		 */
+		public synchronized void add(QueryMetrics other) {
+			this.nodes.add(other.nodes);
+			this.openPeak.add(other.openPeak);
+			this.time.add(other.time);
+			this.length.add(other.length);
+			this.failures += other.failures;
+			for(Query query : other.slowest) this.addSlowest(query);
+		}
+
+		public synchronized long getCount() {
+			return this.time.getCount();
+		}
+
+		public synchronized long getFailures() {
+			return this.failures;
+		}
+
+		public synchronized void reset() {
+			this.nodes.reset();
+			this.openPeak.reset();
+			this.time.reset();
+			this.length.reset();
+			this.failures = 0;
+			this.slowest.clear();
+		}
+
+		synchronized void dump(String name, PrintWriter out) {
+			dump(out, name, this.time.getCount(), this.failures, "nodes", this.nodes);
+			dump(out, "", -1, -1, "open peak", this.openPeak);
+			dump(out, "", -1, -1, "time us", this.time);
+			dump(out, "", -1, -1, "length", this.length);
+		}
+
+		synchronized void dumpSlowest(String name, PrintWriter out) {
+			if(this.slowest.isEmpty()) return;
+			out.println("slowest " + name + ":");
+			for(Query query : this.slowest) {
+				String to = query.toX < 0 ? "" : String.format(Locale.ROOT, " -> (%d, %d)", query.toX, query.toY);
+				out.println(String.format(Locale.ROOT, "  (%d, %d)%s %.1f us, %d nodes, %s", query.fromX, query.fromY, to, query.nanos / 1e3, query.nodes, query.length < 0 ? "failed" : query.length + " cells"));
+			}
+		}
+
+		private static void dump(PrintWriter out, String name, long count, long failures, String metric, Histogram histogram) {
+			// times are recorded in nanoseconds but printed in microseconds
+			double scale = metric.startsWith("time") ? 1e-3 : 1;
+			out.println(String.format(Locale.ROOT, "%-16s %9s %8s  %-10s %12.1f %12.1f %12.1f %12.1f %12.1f", name, count < 0 ? "" : count, failures < 0 ? "" : failures, metric,
+					histogram.getMean() * scale, histogram.getPercentile(0.5) * scale, histogram.getPercentile(0.9) * scale, histogram.getPercentile(0.99) * scale, histogram.getMax() * scale));
+		}
+	}
+
+	private static class Query {
+
+		final int fromX, fromY, toX, toY;
+		final int nodes;
+		final long nanos;
+		final int length;
+
+		Query(Cell from, Cell to, int nodes, long nanos, int length) {
+			this.fromX = from.x;
+			this.fromY = from.y;
+			this.toX = to == null ? -1 : to.x;
+			this.toY = to == null ? -1 : to.y;
+			this.nodes = nodes;
+			this.nanos = nanos;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+
+/**
+ * A request for the path between two cells
+ */
+public class PathQuery {
+
+	public final Cell from;
+	public final Cell to;
+
+	public PathQuery(Cell from, Cell to) {
+		this.from = from;
+		this.to = to;
+	}
+}
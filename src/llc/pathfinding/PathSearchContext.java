@@ -0,0 +1,154 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Holds the complete state of one path search in primitive arrays indexed by y * width + x.
+ * A context is reused between searches: node data is tagged with a search generation, so starting
+ * a new search does not have to wipe the arrays. A context must only be used by one thread at a time,
+ * use {@link #forCurrentThread()} or borrow one with {@link #acquire()} / {@link #release()}.
+ */
+public class PathSearchContext {
+
+	public static final int INFINITY = Integer.MAX_VALUE;
+
+	private static final ThreadLocal<PathSearchContext> threadContexts = new ThreadLocal<PathSearchContext>() {
+		@Override
+		protected PathSearchContext initialValue() {
+			return new PathSearchContext();
+		}
+	};
+	private static final ConcurrentLinkedQueue<PathSearchContext> pool = new ConcurrentLinkedQueue<PathSearchContext>();
+
+	private int[] g = new int[0];
+	private int[] f = new int[0];
+	private int[] parent = new int[0];
+	private int[] stamp = new int[0];
+	private long[] closed = new long[0];
+	private final NodeHeap open = new NodeHeap(0);
+
+	private int generation;
+	private int expandedNodes;
+	/** The nodes expanded since the last {@link #beginQuery()}, a query may consist of several searches */
+	private int queryExpandedNodes;
+
+	/**
+	 * Gets the context that belongs to the calling thread
+	 */
+	public static PathSearchContext forCurrentThread() {
+		return threadContexts.get();
+	}
+
+	/**
+	 * Borrows a context from the shared pool, give it back with {@link #release()}
+	 */
+	public static PathSearchContext acquire() {
+		PathSearchContext context = pool.poll();
+		return context != null ? context : new PathSearchContext();
+	}
+
+	/**
+	 * Returns a context borrowed with {@link #acquire()} to the pool
+	 */
+	public void release() {
+		pool.offer(this);
+	}
+
+	/**
+	 * Prepares the context for a new search over the given amount of nodes
+	 */
+	public void begin(int nodes) {
+		if(this.stamp.length < nodes) {
+			this.g = new int[nodes];
+			this.f = new int[nodes];
+			this.parent = new int[nodes];
+			this.stamp = new int[nodes];
+			this.closed = new long[(nodes + 63) >>> 6];
+			this.open.ensureCapacity(nodes);
+			this.generation = 0;
+		} else {
+			Arrays.fill(this.closed, 0, (nodes + 63) >>> 6, 0L);
+		}
+		this.open.clear();
+
+		this.generation++;
+		if(this.generation == 0) {
+			// the generation counter wrapped around, old stamps could look valid again
+			Arrays.fill(this.stamp, 0);
+			this.generation = 1;
+		}
+		this.expandedNodes = 0;
+	}
+
+	/**
+	 * Checks if the node was reached during the current search
+	 */
+	public boolean isVisited(int node) {
+		return this.stamp[node] == this.generation;
+	}
+
+	/**
+	 * Gets the cost from the start to the node or {@link #INFINITY} if it wasn't reached yet
+	 */
+	public int getG(int node) {
+		return this.stamp[node] == this.generation ? this.g[node] : INFINITY;
+	}
+
+	public int getF(int node) {
+		return this.stamp[node] == this.generation ? this.f[node] : INFINITY;
+	}
+
+	public int getParent(int node) {
+		return this.parent[node];
+	}
+
+	/**
+	 * Stores new data for a node
+	 */
+	public void setNode(int node, int g, int f, int parent) {
+		this.g[node] = g;
+		this.f[node] = f;
+		this.parent[node] = parent;
+		this.stamp[node] = this.generation;
+	}
+
+	public boolean isClosed(int node) {
+		return (this.closed[node >>> 6] & (1L << node)) != 0;
+	}
+
+	/**
+	 * Marks the node as expanded
+	 */
+	public void close(int node) {
+		this.closed[node >>> 6] |= 1L << node;
+		this.expandedNodes++;
+		this.queryExpandedNodes++;
+	}
+
+	public NodeHeap getOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Starts counting the statistics of a query, the counts go on over all searches until the next call
+	 */
+	public void beginQuery() {
+		this.queryExpandedNodes = 0;
+		this.open.resetPeakSize();
+	}
+
+	/**
+	 * Gets the number of nodes expanded since the last {@link #beginQuery()}
+	 */
+	public int getQueryExpandedNodes() {
+		return this.queryExpandedNodes;
+	}
+
+	/**
+	 * Gets the number of nodes expanded since the last {@link #begin(int)}
+	 */
+	public int getExpandedNodes() {
+		return this.expandedNodes;
+	}
+}
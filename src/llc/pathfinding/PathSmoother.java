@@ -0,0 +1,88 @@
+package llc.pathfinding;
+
+import java.util.List;
+
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+
+/**
+ * Turns paths of cells into waypoints stored as packed cell indices (y * width + x).
+ * Smoothing pulls the path tight like a string: a waypoint is only kept where the straight line from the
+ * previous waypoint to the next one would cross a blocked cell, so a unit on open ground walks one straight line.
+ */
+public class PathSmoother {
+
+	/**
+	 * Packs the cells of the path without removing any of them
+	 */
+	public static int[] pack(Grid grid, List<Cell> path) {
+		int width = grid.getWidth();
+		int[] waypoints = new int[path.size()];
+		for(int i = 0; i < waypoints.length; i++) waypoints[i] = path.get(i).y * width + path.get(i).x;
+		return waypoints;
+	}
+
+	/**
+	 * Removes every waypoint the unit can walk past in a straight line.
+	 * Paths that wait on a cell (the same cell twice in a row) are only packed, smoothing them would change their timing.
+	 * @param start the cell the path starts at, not part of the path
+	 * @return the waypoints without the start cell
+	 */
+	public static int[] smooth(Grid grid, Cell start, List<Cell> path) {
+		Cell previous = start;
+		for(Cell cell : path) {
+			if(cell == previous) return pack(grid, path);
+			previous = cell;
+		}
+
+		int width = grid.getWidth();
+		int[] waypoints = new int[path.size()];
+		int count = 0;
+		Cell anchor = start;
+		Cell goal = path.get(path.size() - 1);
+		for(int i = 0; i < path.size() - 1; i++) {
+			Cell next = path.get(i + 1);
+			if(!hasLineOfSight(grid, anchor.x, anchor.y, next.x, next.y, goal)) {
+				anchor = path.get(i);
+				waypoints[count++] = anchor.y * width + anchor.x;
+			}
+		}
+		waypoints[count++] = goal.y * width + goal.x;
+
+		int[] result = new int[count];
+		System.arraycopy(waypoints, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Checks if every cell the straight line between the two cell centers crosses can be walked on.
+	 * A line through the corner of two cells touches neither of them, just like a diagonal step.
+	 * @param goal the destination of the path, the only cell that may contain an entity
+	 */
+	public static boolean hasLineOfSight(Grid grid, int fromX, int fromY, int toX, int toY, Cell goal) {
+		int stepX = Integer.signum(toX - fromX);
+		int stepY = Integer.signum(toY - fromY);
+		int lengthX = Math.abs(toX - fromX);
+		int lengthY = Math.abs(toY - fromY);
+
+		int x = fromX, y = fromY;
+		int crossedX = 0, crossedY = 0;
+		while(crossedX < lengthX || crossedY < lengthY) {
+			// compare where the line crosses the next vertical and the next horizontal cell border
+			long order = (long)(1 + 2 * crossedX) * lengthY - (long)(1 + 2 * crossedY) * lengthX;
+			if(order <= 0) {
+				x += stepX;
+				crossedX++;
+			}
+			if(order >= 0) {
+				y += stepY;
+				crossedY++;
+			}
+
+			Cell cell = grid.getCellAt(x, y);
+			if(cell.getType() != CellType.WALKABLE || (cell.containsEntity() && cell != goal)) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,233 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+import llc.util.PathFinder;
+
+/**
+ * Runs path queries on a background thread so the render loop never waits for a search.
+ * Every query works on a {@link GridSnapshot} taken when it is submitted. Path previews for the hovered cell
+ * are coalesced: a new preview request replaces one that hasn't started yet, and the renderer draws the
+ * last finished {@link Preview}.
+ * A new snapshot copies only the blocks of the cells changed since the last one.
+ */
+public class PathfindingService implements IGridListener {
+
+	private final Grid grid;
+	private final ExecutorService executor;
+
+	private GridSnapshot snapshot;
+	/** The cells changed since the snapshot was taken, null if there are too many to update it */
+	private int[] changed = new int[64];
+	private int changedCount;
+	private ReachabilityMap previewMap;
+
+	private final AtomicReference<PreviewRequest> pending = new AtomicReference<PreviewRequest>();
+	private volatile PreviewRequest latest;
+	private volatile Preview preview;
+
+	public PathfindingService(Grid grid) {
+		this.grid = grid;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Pathfinding");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		grid.addListener(this);
+	}
+
+	/**
+	 * Stops the background thread, queries that haven't started yet are dropped
+	 */
+	public void shutdown() {
+		this.grid.removeListener(this);
+		this.executor.shutdownNow();
+	}
+
+	@Override
+	public void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		this.addChange(cell);
+	}
+
+	@Override
+	public void onTypeChanged(Cell cell) {
+		this.addChange(cell);
+	}
+
+	private void addChange(Cell cell) {
+		if(this.snapshot == null || this.changed == null) return;
+		if(this.changedCount == this.changed.length) {
+			// with this many changes copying the whole grid is cheaper
+			if(this.changedCount * 9L > (long)this.grid.getWidth() * this.grid.getHeigth() / 64) {
+				this.changed = null;
+				return;
+			}
+			this.changed = Arrays.copyOf(this.changed, this.changedCount * 2);
+		}
+		this.changed[this.changedCount++] = cell.getIndex();
+	}
+
+	/**
+	 * Searches the path between the two cells in the background with the costs of the {@link PathFinder}
+	 * @see #findPath(Cell, Cell, PathCostModel)
+	 */
+	public CompletableFuture<List<Cell>> findPath(Cell from, Cell to) {
+		return this.findPath(from, to, PathFinder.getCostModel());
+	}
+
+	/**
+	 * Searches the cheapest path between the two cells in the background.
+	 * Must be called on the thread that changes the grid.
+	 * @return a future completed with the path without the start cell or with null if there is none
+	 */
+	public CompletableFuture<List<Cell>> findPath(final Cell from, final Cell to, final PathCostModel costModel) {
+		final GridSnapshot snapshot = this.getSnapshot();
+		final RegionMap regions = this.grid.getRegions();
+		if(regions != null && !regions.isConnected(from, to)) return CompletableFuture.completedFuture(null);
+
+		final CompletableFuture<List<Cell>> future = new CompletableFuture<List<Cell>>();
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(future.isDone()) return;
+				try {
+					PathSearchContext context = PathSearchContext.forCurrentThread();
+					if(!PathMetrics.isEnabled()) {
+						future.complete(AStarSearch.findPath(snapshot, from, to, costModel, context));
+						return;
+					}
+					context.beginQuery();
+					long start = System.nanoTime();
+					List<Cell> path = AStarSearch.findPath(snapshot, from, to, costModel, context);
+					PathMetrics.get().getQueries("background").record(from, to, context, System.nanoTime() - start, path);
+					future.complete(path);
+				} catch(RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Requests the path a unit standing on the origin would take to the cell within range steps.
+	 * Can be called every frame, requests equal to the last one are ignored and a waiting request is
+	 * cancelled when a newer one arrives. Must be called on the thread that changes the grid.
+	 * @return a future completed with the path without the origin or with null if the cell is out of range
+	 */
+	public CompletableFuture<List<Cell>> requestPreview(Cell origin, Cell to, int range) {
+		GridSnapshot snapshot = this.getSnapshot();
+		PreviewRequest last = this.latest;
+		if(last != null && last.origin == origin && last.to == to && last.range == range && last.snapshot == snapshot) return last.future;
+
+		PreviewRequest request = new PreviewRequest(snapshot, origin, to, range);
+		this.latest = request;
+		PreviewRequest superseded = this.pending.getAndSet(request);
+		if(superseded != null) {
+			superseded.future.cancel(false);
+		} else {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runPreview();
+				}
+			});
+		}
+		return request.future;
+	}
+
+	/**
+	 * Gets the last finished preview
+	 * @return the preview or null if none finished yet
+	 */
+	public Preview getPreview() {
+		return this.preview;
+	}
+
+	/**
+	 * Floods the reachable cells of the newest waiting preview request on the background thread
+	 */
+	private void runPreview() {
+		PreviewRequest request = this.pending.getAndSet(null);
+		if(request == null) return;
+
+		if(this.previewMap == null) this.previewMap = new ReachabilityMap(request.snapshot);
+		this.previewMap.setSnapshot(request.snapshot);
+		this.previewMap.update(request.origin, request.range);
+		List<Cell> path = this.previewMap.getPath(request.to.x, request.to.y);
+
+		this.preview = new Preview(request.origin, request.to, request.range, path);
+		request.future.complete(path);
+	}
+
+	/**
+	 * Gets a snapshot of the current grid, a new one is only taken after the grid changed
+	 */
+	private GridSnapshot getSnapshot() {
+		if(this.snapshot == null || this.changed == null) {
+			this.snapshot = GridSnapshot.of(this.grid);
+			this.changed = new int[64];
+		} else if(this.snapshot.getVersion() != this.grid.getVersion()) {
+			this.snapshot = this.snapshot.update(this.grid, this.changed, this.changedCount);
+		} else {
+			return this.snapshot;
+		}
+		this.changedCount = 0;
+		return this.snapshot;
+	}
+
+	private static class PreviewRequest {
+
+		final GridSnapshot snapshot;
+		final Cell origin;
+		final Cell to;
+		final int range;
+		final CompletableFuture<List<Cell>> future = new CompletableFuture<List<Cell>>();
+
+		PreviewRequest(GridSnapshot snapshot, Cell origin, Cell to, int range) {
+			this.snapshot = snapshot;
+			this.origin = origin;
+			this.to = to;
+			this.range = range;
+		}
+	}
+
+	/**
+	 * A finished path preview
+	 */
+	public static class Preview {
+
+		public final Cell origin;
+		public final Cell to;
+		public final int range;
+		/** The path without the origin or null if the cell is out of range */
+		public final List<Cell> path;
+
+		Preview(Cell origin, Cell to, int range, List<Cell> path) {
+			this.origin = origin;
+			this.to = to;
+			this.range = range;
+			this.path = path;
+		}
+
+		/**
+		 * Checks if this preview was computed for the given request
+		 */
+		public boolean matches(Cell origin, Cell to, int range) {
+			return this.origin == origin && this.to == to && this.range == range;
+		}
+	}
+}
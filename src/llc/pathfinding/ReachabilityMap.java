@@ -0,0 +1,210 @@
+package llc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+
+/**
+ * All cells a unit can reach within its move range.
+ * One bounded Dijkstra flood from the unit's cell stores the distance and the parent of every cell in range,
+ * afterwards range checks and paths are simple lookups. The flood is only repeated when the origin or the
+ * range changes or when an entity moves on or off a cell inside the range.
+ * Cells containing an entity can be reached, but no path leads through them.
+ */
+public class ReachabilityMap implements IGridListener {
+
+	/** Paths are compared by their number of steps first and by their length second */
+	private static final int STEP_SHIFT = 16;
+
+	private final Grid grid;
+	private final PathSearchContext context = new PathSearchContext();
+	/** If set, the flood reads this snapshot instead of the live grid */
+	private GridSnapshot snapshot;
+
+	private Cell origin;
+	private int range = -1;
+	private boolean dirty = true;
+
+	// The window around the origin that can be reached within range steps
+	private int x0, y0, x1, y1, windowWidth;
+
+	public ReachabilityMap(Grid grid) {
+		this.grid = grid;
+		grid.addListener(this);
+	}
+
+	/**
+	 * Creates a map that floods snapshots instead of the live grid, so it can be used off the game thread
+	 */
+	ReachabilityMap(GridSnapshot snapshot) {
+		this.grid = null;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Stops listening to the grid
+	 */
+	public void dispose() {
+		if(this.grid != null) this.grid.removeListener(this);
+	}
+
+	@Override
+	public void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		if(this.origin != null && cell.x >= this.x0 && cell.x <= this.x1 && cell.y >= this.y0 && cell.y <= this.y1) this.dirty = true;
+	}
+
+	@Override
+	public void onTypeChanged(Cell cell) {
+		this.onOccupancyChanged(cell, null, null);
+	}
+
+	/**
+	 * Forces a new flood on the next {@link #update(Cell, int)}
+	 */
+	public void invalidate() {
+		this.dirty = true;
+	}
+
+	/**
+	 * Sets the snapshot to flood, a map created for snapshots is flooded again when it gets a newer one
+	 */
+	void setSnapshot(GridSnapshot snapshot) {
+		if(snapshot != this.snapshot) this.dirty = true;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Makes sure the map contains the cells reachable from the origin within range steps
+	 */
+	public void update(Cell origin, int range) {
+		if(!this.dirty && origin == this.origin && range == this.range) return;
+		this.origin = origin;
+		this.range = range;
+		this.dirty = false;
+
+		this.x0 = Math.max(origin.x - range, 0);
+		this.y0 = Math.max(origin.y - range, 0);
+		this.x1 = Math.min(origin.x + range, this.getWidth() - 1);
+		this.y1 = Math.min(origin.y + range, this.getHeight() - 1);
+		this.windowWidth = this.x1 - this.x0 + 1;
+		if(!PathMetrics.isEnabled()) {
+			this.flood();
+			return;
+		}
+
+		this.context.beginQuery();
+		long start = System.nanoTime();
+		this.flood();
+		// a flood has no single result, the number of reached cells takes the place of the path length
+		int reached = this.context.getQueryExpandedNodes();
+		PathMetrics.get().getQueries(this.grid != null ? "reachability" : "preview").record(origin, null, reached, this.context.getOpen().getPeakSize(), System.nanoTime() - start, reached);
+	}
+
+	private void flood() {
+		this.context.begin(this.windowWidth * (this.y1 - this.y0 + 1));
+		NodeHeap open = this.context.getOpen();
+
+		int start = this.toLocal(this.origin.x, this.origin.y);
+		this.context.setNode(start, 0, 0, start);
+		open.insert(start, 0);
+
+		while(!open.isEmpty()) {
+			int node = open.poll();
+			this.context.close(node);
+			int x = this.x0 + node % this.windowWidth;
+			int y = this.y0 + node / this.windowWidth;
+			if(node != start && this.isOccupied(x, y)) continue;
+
+			int key = this.context.getG(node);
+			if((key >>> STEP_SHIFT) >= this.range) continue;
+
+			int neighbours = this.getWalkableNeighbours(x, y);
+			for(; neighbours != 0; neighbours &= neighbours - 1) {
+				int d = Integer.numberOfTrailingZeros(neighbours);
+				int nx = x + Grid.NEIGHBOUR_DX[d];
+				int ny = y + Grid.NEIGHBOUR_DY[d];
+				if(nx < this.x0 || nx > this.x1 || ny < this.y0 || ny > this.y1) continue;
+
+				int next = this.toLocal(nx, ny);
+				if(this.context.isClosed(next)) continue;
+
+				int cost = key + (1 << STEP_SHIFT) + AStarSearch.stepCost(d);
+				if(cost < this.context.getG(next)) {
+					this.context.setNode(next, cost, cost, node);
+					open.insert(next, cost);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the cell can be reached within the range. The origin itself is not reachable.
+	 */
+	public boolean isReachable(int x, int y) {
+		return this.getDistance(x, y) > 0;
+	}
+
+	/**
+	 * Gets the number of steps needed to reach the cell or -1 if it is out of range
+	 */
+	public int getDistance(int x, int y) {
+		if(this.origin == null || x < this.x0 || x > this.x1 || y < this.y0 || y > this.y1) return -1;
+		int key = this.context.getG(this.toLocal(x, y));
+		return key == PathSearchContext.INFINITY ? -1 : key >>> STEP_SHIFT;
+	}
+
+	/**
+	 * Gets the path from the origin to the cell
+	 * @return the path without the origin or null if the cell is out of range
+	 */
+	public List<Cell> getPath(int x, int y) {
+		if(!this.isReachable(x, y)) return null;
+
+		List<Cell> path = new ArrayList<Cell>();
+		int start = this.toLocal(this.origin.x, this.origin.y);
+		for(int node = this.toLocal(x, y); node != start; node = this.context.getParent(node)) {
+			path.add(this.getCell(this.x0 + node % this.windowWidth, this.y0 + node / this.windowWidth));
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	public Cell getOrigin() {
+		return this.origin;
+	}
+
+	public int getRange() {
+		return this.range;
+	}
+
+	private int getWalkableNeighbours(int x, int y) {
+		if(this.snapshot != null) return this.snapshot.getWalkableNeighbours(y * this.snapshot.getWidth() + x);
+		return this.grid.getWalkableNeighbours(y * this.grid.getWidth() + x);
+	}
+
+	private boolean isOccupied(int x, int y) {
+		if(this.snapshot != null) return this.snapshot.isOccupied(y * this.snapshot.getWidth() + x);
+		return this.grid.getCellAt(x, y).containsEntity();
+	}
+
+	private Cell getCell(int x, int y) {
+		return this.snapshot != null ? this.snapshot.getCell(y * this.snapshot.getWidth() + x) : this.grid.getCellAt(x, y);
+	}
+
+	private int getWidth() {
+		return this.snapshot != null ? this.snapshot.getWidth() : this.grid.getWidth();
+	}
+
+	private int getHeight() {
+		return this.snapshot != null ? this.snapshot.getHeight() : this.grid.getHeigth();
+	}
+
+	private int toLocal(int x, int y) {
+		return (y - this.y0) * this.windowWidth + x - this.x0;
+	}
+}
@@ -0,0 +1,229 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+
+import llc.entity.Entity;
+import llc.logic.Cell;
+import llc.logic.CellType;
+import llc.logic.Grid;
+import llc.logic.IGridListener;
+
+/**
+ * Connected regions of the free cells (walkable and without an entity) of a {@link Grid}.
+ * Two cells in different regions can never be connected by a path, so searches between them can be rejected
+ * before a single node is expanded.
+ * Freeing a cell merges the regions around it in a union-find structure. Occupying a cell can only split a
+ * region if its free neighbours are not connected around it; only then all cells are labelled again, on the next query.
+ */
+public class RegionMap implements IGridListener {
+
+	private static final int NONE = -1;
+
+	/** The offsets of the eight neighbours */
+	private static final int[] RING_X = { -1, 0, 1, 1, 1, 0, -1, -1 };
+	private static final int[] RING_Y = { -1, -1, -1, 0, 1, 1, 1, 0 };
+
+	private final Grid grid;
+	private final int width;
+	private final int height;
+
+	/** cell -> region label, {@link #NONE} if the cell isn't free */
+	private final int[] labels;
+	/** region label -> parent label in the union-find forest */
+	private int[] parents = new int[64];
+	private int regionCount;
+	private boolean dirty;
+
+	public RegionMap(Grid grid) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeigth();
+		this.labels = new int[this.width * this.height];
+		this.relabel();
+		grid.addListener(this);
+	}
+
+	/**
+	 * Stops listening to the grid
+	 */
+	public void dispose() {
+		this.grid.removeListener(this);
+	}
+
+	@Override
+	public synchronized void onOccupancyChanged(Cell cell, Entity oldEntity, Entity newEntity) {
+		if((oldEntity == null) == (newEntity == null) || cell.getType() != CellType.WALKABLE || this.dirty) return;
+		this.update(cell, newEntity == null);
+	}
+
+	@Override
+	public synchronized void onTypeChanged(Cell cell) {
+		if(this.dirty || cell.containsEntity()) return;
+		this.update(cell, cell.getType() == CellType.WALKABLE);
+	}
+
+	/**
+	 * Merges the regions around a cell that became free or checks if a cell that isn't free anymore splits its region
+	 */
+	private void update(Cell cell, boolean free) {
+		int index = cell.y * this.width + cell.x;
+		if(free) {
+			int label = NONE;
+			for(int d = 0; d < 8; d++) {
+				int neighbour = this.labelAt(cell.x + RING_X[d], cell.y + RING_Y[d]);
+				if(neighbour == NONE) continue;
+				if(label == NONE) label = this.find(neighbour);
+				else this.union(label, neighbour);
+			}
+			this.labels[index] = label == NONE ? this.newRegion() : this.find(label);
+		} else {
+			this.labels[index] = NONE;
+			if(this.splitsRing(cell.x, cell.y)) this.dirty = true;
+		}
+	}
+
+	/**
+	 * Checks if a path between the two cells may exist. The start cell and the destination may contain an entity.
+	 * @return false if the cells are certainly not connected
+	 */
+	public synchronized boolean isConnected(Cell from, Cell to) {
+		if(to.getType() != CellType.WALKABLE) return false;
+		if(Math.abs(from.x - to.x) <= 1 && Math.abs(from.y - to.y) <= 1) return true;
+		if(this.dirty) this.relabel();
+
+		int[] fromRegions = new int[9];
+		int count = this.collectRegions(from, fromRegions);
+		if(count == 0) return false;
+
+		int own = this.labelAt(to.x, to.y);
+		if(own != NONE) return contains(fromRegions, count, this.find(own));
+		for(int d = 0; d < 8; d++) {
+			int label = this.labelAt(to.x + RING_X[d], to.y + RING_Y[d]);
+			if(label != NONE && contains(fromRegions, count, this.find(label))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the region of a free cell
+	 * @return the region or -1 if the cell isn't free
+	 */
+	public synchronized int getRegion(int x, int y) {
+		if(this.dirty) this.relabel();
+		int label = this.labelAt(x, y);
+		return label == NONE ? NONE : this.find(label);
+	}
+
+	/**
+	 * Writes the regions a path starting at the cell can enter into the array
+	 * @return the number of written regions
+	 */
+	private int collectRegions(Cell cell, int[] out) {
+		int own = this.labelAt(cell.x, cell.y);
+		if(own != NONE) {
+			out[0] = this.find(own);
+			return 1;
+		}
+
+		int count = 0;
+		for(int d = 0; d < 8; d++) {
+			int label = this.labelAt(cell.x + RING_X[d], cell.y + RING_Y[d]);
+			if(label == NONE) continue;
+			label = this.find(label);
+			if(!contains(out, count, label)) out[count++] = label;
+		}
+		return count;
+	}
+
+	/**
+	 * Checks if the free neighbours of the cell fall apart into more than one group without the cell
+	 */
+	private boolean splitsRing(int x, int y) {
+		int[] group = new int[8];
+		for(int d = 0; d < 8; d++) group[d] = this.labelAt(x + RING_X[d], y + RING_Y[d]) == NONE ? NONE : d;
+
+		// neighbours touching each other are in the same group
+		for(int i = 0; i < 8; i++) {
+			if(group[i] == NONE) continue;
+			for(int j = i + 1; j < 8; j++) {
+				if(group[j] == NONE || Math.abs(RING_X[i] - RING_X[j]) > 1 || Math.abs(RING_Y[i] - RING_Y[j]) > 1) continue;
+				int from = group[j], to = group[i];
+				for(int k = 0; k < 8; k++) if(group[k] == from) group[k] = to;
+			}
+		}
+
+		int first = NONE;
+		for(int d = 0; d < 8; d++) {
+			if(group[d] == NONE) continue;
+			if(first == NONE) first = group[d];
+			else if(group[d] != first) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Labels all free cells from scratch with a flood fill
+	 */
+	private void relabel() {
+		Arrays.fill(this.labels, NONE);
+		this.regionCount = 0;
+		this.dirty = false;
+
+		int[] stack = new int[this.labels.length];
+		int[] offsets = this.grid.getNeighbourOffsets();
+		for(int y = 0; y < this.height; y++) {
+			for(int x = 0; x < this.width; x++) {
+				int start = y * this.width + x;
+				if(this.labels[start] != NONE || !this.isFree(x, y)) continue;
+
+				int label = this.newRegion();
+				this.labels[start] = label;
+				int size = 0;
+				stack[size++] = start;
+				while(size > 0) {
+					int node = stack[--size];
+					for(int neighbours = this.grid.getFreeNeighbours(node); neighbours != 0; neighbours &= neighbours - 1) {
+						int next = node + offsets[Integer.numberOfTrailingZeros(neighbours)];
+						if(this.labels[next] != NONE) continue;
+						this.labels[next] = label;
+						stack[size++] = next;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isFree(int x, int y) {
+		return this.grid.isFree(y * this.width + x);
+	}
+
+	private int labelAt(int x, int y) {
+		if(x < 0 || y < 0 || x >= this.width || y >= this.height) return NONE;
+		return this.labels[y * this.width + x];
+	}
+
+	private int newRegion() {
+		if(this.regionCount == this.parents.length) this.parents = Arrays.copyOf(this.parents, this.parents.length * 2);
+		this.parents[this.regionCount] = this.regionCount;
+		return this.regionCount++;
+	}
+
+	private int find(int label) {
+		while(this.parents[label] != label) {
+			this.parents[label] = this.parents[this.parents[label]];
+			label = this.parents[label];
+		}
+		return label;
+	}
+
+	private void union(int a, int b) {
+		a = this.find(a);
+		b = this.find(b);
+		if(a != b) this.parents[b] = a;
+	}
+
+	private static boolean contains(int[] array, int count, int value) {
+		for(int i = 0; i < count; i++) if(array[i] == value) return true;
+		return false;
+	}
+}
@@ -0,0 +1,77 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which unit occupies which cell at which time step of a cooperative plan.
+ * Time steps run from 0 to the window size; only the reserved (cell, time) pairs are stored, hashed by
+ * time * cells + cell, so the table grows with the planned paths and not with the map.
+ */
+public class ReservationTable {
+
+	public static final int FREE = -1;
+
+	private final int cells;
+	private final int window;
+	private final SlotMap reserved = new SlotMap(256);
+	/** slot -> unit */
+	private int[] owners = new int[256];
+
+	/**
+	 * @param cells the number of cells of the grid
+	 * @param window the last time step that can be reserved
+	 */
+	public ReservationTable(int cells, int window) {
+		this.cells = cells;
+		this.window = window;
+	}
+
+	/**
+	 * Reserves the cell for the unit at the time step, steps after the window are ignored
+	 */
+	public void reserve(int cell, int time, int unit) {
+		if(time > this.window) return;
+		int slot = this.reserved.add((long)time * this.cells + cell);
+		if(slot == this.owners.length) this.owners = Arrays.copyOf(this.owners, slot * 2);
+		this.owners[slot] = unit;
+	}
+
+	/**
+	 * Reserves the cell for the unit from the time step up to the end of the window
+	 */
+	public void reserveFrom(int cell, int time, int unit) {
+		for(int t = time; t <= this.window; t++) this.reserve(cell, t, unit);
+	}
+
+	/**
+	 * Gets the unit occupying the cell at the time step
+	 * @return the unit or {@link #FREE}, always free after the window
+	 */
+	public int getOwner(int cell, int time) {
+		if(time > this.window) return FREE;
+		int slot = this.reserved.get((long)time * this.cells + cell);
+		return slot < 0 ? FREE : this.owners[slot];
+	}
+
+	/**
+	 * Checks if no other unit occupies the cell at any time step from the given one up to the end of the window
+	 */
+	public boolean isFreeFrom(int cell, int time, int unit) {
+		for(int t = time; t <= this.window; t++) {
+			int owner = this.getOwner(cell, t);
+			if(owner != FREE && owner != unit) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all reservations
+	 */
+	public void clear() {
+		this.reserved.clear();
+	}
+
+	public int getWindow() {
+		return this.window;
+	}
+}
@@ -0,0 +1,13 @@
+package llc.pathfinding;
+
+/**
+ * The search algorithms the {@link llc.util.PathFinder} can use
+ */
+public enum SearchAlgorithm {
+
+	/** Plain A*-search, see {@link AStarSearch} */
+	A_STAR,
+	/** Jump Point Search, expands far less cells on open maps, see {@link JumpPointSearch} */
+	JUMP_POINT;
+
+}
@@ -0,0 +1,42 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+
+/**
+ * The cells a path search runs on, addressed by node index (y * width + x).
+ * Implemented by the live {@link llc.logic.Grid} and by a {@link GridSnapshot} of it, so the same search works on both.
+ */
+public interface SearchGraph {
+
+	int getWidth();
+
+	/**
+	 * Gets the number of nodes, width * height
+	 */
+	int getSize();
+
+	/**
+	 * Checks if a unit can stand on the node when it is empty
+	 */
+	boolean isWalkable(int node);
+
+	/**
+	 * Gets the mask of the neighbours that can be entered from the node, see {@link llc.logic.Grid#getWalkableNeighbours(int)}
+	 */
+	int getWalkableNeighbours(int node);
+
+	/**
+	 * Gets the mask of the walkable neighbours without an entity, see {@link llc.logic.Grid#getFreeNeighbours(int)}
+	 */
+	int getFreeNeighbours(int node);
+
+	/**
+	 * Gets the index offsets of the neighbours in the order of the mask bits
+	 */
+	int[] getNeighbourOffsets();
+
+	/**
+	 * Gets the cell of the node
+	 */
+	Cell getCell(int node);
+}
@@ -0,0 +1,41 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+
+/**
+ * Costs that make units avoid climbing: every step costs as much as on flat ground plus a penalty
+ * for the height gained. Going down is free, so the octile distance still never overestimates.
+ */
+public class SlopeCostModel extends UniformCostModel {
+
+	public static final int DEFAULT_CLIMB_COST = 50;
+
+	private final int climbCost;
+
+	public SlopeCostModel() {
+		this(DEFAULT_CLIMB_COST);
+	}
+
+	/**
+	 * @param climbCost the additional cost for climbing a height difference of 1
+	 */
+	public SlopeCostModel(int climbCost) {
+		this.climbCost = climbCost;
+	}
+
+	@Override
+	public int getStepCost(Cell from, Cell to) {
+		float climb = to.getHeight() - from.getHeight();
+		int cost = super.getStepCost(from, to);
+		return climb > 0 ? cost + Math.round(climb * this.climbCost) : cost;
+	}
+
+	@Override
+	public boolean isUniform() {
+		return false;
+	}
+
+	public int getClimbCost() {
+		return this.climbCost;
+	}
+}
@@ -0,0 +1,114 @@
+package llc.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Gives sparse keys (node indices or space-time states) dense slots 0, 1, 2, ... in the order they are first seen.
+ * The keys are stored in an open addressing hash table that grows with the number of keys, so data about a few
+ * nodes of a huge map can be kept in small arrays indexed by slot.
+ */
+public class SlotMap {
+
+	private static final long EMPTY = -1L;
+
+	/** hash position -> key */
+	private long[] table;
+	/** hash position -> slot */
+	private int[] slots;
+	/** slot -> key */
+	private long[] keys;
+	private int size;
+
+	public SlotMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expected the number of keys that fit without growing
+	 */
+	public SlotMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) * 2;
+		this.table = new long[capacity];
+		this.slots = new int[capacity];
+		this.keys = new long[capacity / 2];
+		Arrays.fill(this.table, EMPTY);
+	}
+
+	/**
+	 * Gets the slot of the key
+	 * @param key a key that isn't negative
+	 * @return the slot or -1 if the key wasn't added
+	 */
+	public int get(long key) {
+		int mask = this.table.length - 1;
+		for(int i = hash(key) & mask; this.table[i] != EMPTY; i = (i + 1) & mask) {
+			if(this.table[i] == key) return this.slots[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the slot of the key, adds the key with the next free slot if it doesn't have one yet
+	 * @param key a key that isn't negative
+	 */
+	public int add(long key) {
+		int mask = this.table.length - 1;
+		int i = hash(key) & mask;
+		for(; this.table[i] != EMPTY; i = (i + 1) & mask) {
+			if(this.table[i] == key) return this.slots[i];
+		}
+		if(this.size == this.keys.length) {
+			this.grow();
+			return this.add(key);
+		}
+		this.table[i] = key;
+		this.slots[i] = this.size;
+		this.keys[this.size] = key;
+		return this.size++;
+	}
+
+	/**
+	 * Gets the key that has the slot
+	 */
+	public long getKey(int slot) {
+		return this.keys[slot];
+	}
+
+	/**
+	 * Gets the number of keys, the slots in use are 0 up to this number
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes all keys but keeps the memory
+	 */
+	public void clear() {
+		Arrays.fill(this.table, EMPTY);
+		this.size = 0;
+	}
+
+	/**
+	 * Doubles the table, the keys keep their slots
+	 */
+	private void grow() {
+		int capacity = this.table.length * 2;
+		this.table = new long[capacity];
+		this.slots = new int[capacity];
+		Arrays.fill(this.table, EMPTY);
+		int mask = capacity - 1;
+		for(int slot = 0; slot < this.size; slot++) {
+			int i = hash(this.keys[slot]) & mask;
+			while(this.table[i] != EMPTY) i = (i + 1) & mask;
+			this.table[i] = this.keys[slot];
+			this.slots[i] = slot;
+		}
+		this.keys = Arrays.copyOf(this.keys, capacity / 2);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,25 @@
+package llc.pathfinding;
+
+import llc.logic.Cell;
+
+/**
+ * Costs of moving on flat ground: straight steps cost {@link AStarSearch#COST}, diagonal steps
+ * {@link AStarSearch#COST_DIAGONAL}. The octile distance is the exact cost when nothing is in the way.
+ */
+public class UniformCostModel implements PathCostModel {
+
+	@Override
+	public int getStepCost(Cell from, Cell to) {
+		return from.x != to.x && from.y != to.y ? AStarSearch.COST_DIAGONAL : AStarSearch.COST;
+	}
+
+	@Override
+	public int estimate(int fromX, int fromY, int toX, int toY) {
+		return AStarSearch.octile(toX - fromX, toY - fromY);
+	}
+
+	@Override
+	public boolean isUniform() {
+		return true;
+	}
+}
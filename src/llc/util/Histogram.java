@@ -0,0 +1,86 @@
+package llc.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts positive values in buckets growing by powers of two, so a few hundred bytes hold the distribution
+ * of anything from nanoseconds to node counts. Percentiles are accurate to a factor of two. Not thread-safe.
+ */
+public class Histogram {
+
+	/** Bucket i holds the values with i significant bits, bucket 0 holds zero and negative values */
+	private final long[] buckets = new long[64];
+
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	public void record(long value) {
+		this.buckets[value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value)]++;
+		this.count++;
+		this.sum += value;
+		if(value < this.min) this.min = value;
+		if(value > this.max) this.max = value;
+	}
+
+	/**
+	 * Adds all values recorded by the other histogram
+	 */
+	public void add(Histogram other) {
+		for(int i = 0; i < this.buckets.length; i++) this.buckets[i] += other.buckets[i];
+		this.count += other.count;
+		this.sum += other.sum;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	public void reset() {
+		Arrays.fill(this.buckets, 0);
+		this.count = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = Long.MIN_VALUE;
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public long getSum() {
+		return this.sum;
+	}
+
+	/**
+	 * Gets the smallest recorded value or 0 if nothing was recorded
+	 */
+	public long getMin() {
+		return this.count == 0 ? 0 : this.min;
+	}
+
+	/**
+	 * Gets the largest recorded value or 0 if nothing was recorded
+	 */
+	public long getMax() {
+		return this.count == 0 ? 0 : this.max;
+	}
+
+	public double getMean() {
+		return this.count == 0 ? 0 : (double)this.sum / this.count;
+	}
+
+	/**
+	 * Gets an upper bound of the value below which the given fraction of the values lie
+	 * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+	 */
+	public long getPercentile(double fraction) {
+		if(this.count == 0) return 0;
+		long rank = (long)Math.ceil(fraction * this.count);
+		long seen = 0;
+		for(int i = 0; i < this.buckets.length; i++) {
+			seen += this.buckets[i];
+			if(seen >= rank && seen > 0) return Math.min(i == 63 ? Long.MAX_VALUE : (1L << i) - 1, this.max);
+		}
+		return this.max;
+	}
+}
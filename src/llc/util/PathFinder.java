@@ -1,12 +1,16 @@
 package llc.util;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import llc.logic.Cell;
-import llc.logic.CellType;
 import llc.logic.Grid;
+import llc.pathfinding.AStarSearch;
+import llc.pathfinding.JumpPointSearch;
+import llc.pathfinding.PathCostModel;
+import llc.pathfinding.PathMetrics;
+import llc.pathfinding.PathSearchContext;
+import llc.pathfinding.RegionMap;
+import llc.pathfinding.SearchAlgorithm;
 
 /**
  * Util class implementing an A*-pathfinding
@@ -14,90 +18,89 @@ import llc.logic.Grid;
  */
 
 public class PathFinder {
-	private static final int CONST_COST = 10;
-	private static final int CONST_COST_DIAGONAL = 14;
-	
+
+	private static volatile SearchAlgorithm algorithm = SearchAlgorithm.A_STAR;
+	private static volatile PathCostModel costModel = PathCostModel.UNIFORM;
+
+	/**
+	 * Searches the shortest path between two cells. The destination cell may contain an entity.
+	 * Safe to call from any thread, every thread searches with its own {@link PathSearchContext}.
+	 * @return the path without the start cell or null if the destination can't be reached
+	 */
 	public static List<Cell> findPath(Grid grid, Cell from, Cell to) {
-		List<Cell> openCells = new ArrayList<Cell>();
-		List<Cell> closedCells = new ArrayList<Cell>();
-		
-		from.pathfFValue = manhattanDistance(from, to);
-		from.pathfOriginCell = from;
-		from.counter = 0;
-		
-		openCells.add(from);
-		
-		while (true) {
-			if(openCells.size() == 0) break;
-
-			Cell lowestFValue = openCells.get(0);
-			if(openCells.size() > 1) for(Cell cell : openCells) if(cell.pathfFValue < lowestFValue.pathfFValue && !closedCells.contains(cell)) lowestFValue = cell;
-			
-			for (Cell cell : getNeighbours(lowestFValue, to, grid)) {
-				if (!openCells.contains(cell) && !closedCells.contains(cell)) {
-					cell.pathfOriginCell = lowestFValue;
-					cell.counter = lowestFValue.counter + 1;
-					cell.pathfFValue = manhattanDistance(cell, to) + (isDiagonalNeighbour(lowestFValue, cell) ? CONST_COST_DIAGONAL : CONST_COST) * cell.counter;
-				
-					openCells.add(cell);
-					
-					if (cell == to) {
-						List<Cell> finalPath = new ArrayList<Cell>();
-						
-						Cell node = cell;
-						
-						do {
-							finalPath.add(node);
-							node = node.pathfOriginCell;
-						} while (node != from);
-						
-						Collections.reverse(finalPath);
-						return finalPath;
-					}
-				}
-			}
-
-			openCells.remove(lowestFValue);
-			closedCells.add(lowestFValue);
-		}
-		
-		return null;
+		return findPath(grid, from, to, algorithm, PathSearchContext.forCurrentThread());
 	}
-	
+
 	/**
-	 * Gets all cells that are inside the grid
-	 * @param cell
-	 * @param grid
-	 * @return finalCells as List<Cell>
+	 * Searches the shortest path with the given algorithm
 	 */
-	private static List<Cell> getNeighbours(Cell cell, Cell destCell, Grid grid) {
-		List<Cell> finalCells = new ArrayList<Cell>();
-		
-		for(int x = -1; x <= 1; x++) {
-			for(int y = -1; y <= 1; y++) {
-				Cell iCell = grid.getCellAt(cell.x + x, cell.y + y);
-				if(iCell != cell && iCell != null && iCell.x >= 0 && iCell.y >= 0 && iCell.y < grid.getHeigth() && iCell.x < grid.getWidth()
-						&& iCell.getType() == CellType.WALKABLE && (!iCell.containsEntity() || iCell == destCell)) finalCells.add(iCell);
-			}
-		}
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, SearchAlgorithm algorithm) {
+		return findPath(grid, from, to, algorithm, PathSearchContext.forCurrentThread());
+	}
 
-		return finalCells;
+	/**
+	 * Searches the shortest path using the given search context
+	 */
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, PathSearchContext context) {
+		return findPath(grid, from, to, algorithm, context);
+	}
+
+	/**
+	 * Searches the shortest path with the given algorithm and search context.
+	 * Cells in different regions of the grid are rejected without searching.
+	 */
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, SearchAlgorithm algorithm, PathSearchContext context) {
+		return findPath(grid, from, to, algorithm, costModel, context);
 	}
-	
-	private static boolean isDiagonalNeighbour(Cell cell, Cell neighbourCell) {
-		return (cell.x != neighbourCell.x && cell.y != neighbourCell.y);
+
+	/**
+	 * Searches the cheapest path with the given costs
+	 */
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, PathCostModel costModel) {
+		return findPath(grid, from, to, algorithm, costModel, PathSearchContext.forCurrentThread());
 	}
-	
+
 	/**
-	 * Gets the manhattan distance (Δx + Δy)
-	 * @param from
-	 * @param to
-	 * @return distFinal as int (final manhattan distance)
+	 * Searches the cheapest path with the given algorithm, costs and search context.
+	 * The {@link SearchAlgorithm#JUMP_POINT} search is only used with uniform costs, otherwise the A*-search is used.
 	 */
-	private static int manhattanDistance(Cell from, Cell to) {
-		int distFinal = Math.abs(from.x - to.x) + Math.abs(from.y - to.y);
+	public static List<Cell> findPath(Grid grid, Cell from, Cell to, SearchAlgorithm algorithm, PathCostModel costModel, PathSearchContext context) {
+		RegionMap regions = grid.getRegions();
+		if(regions != null && !regions.isConnected(from, to)) {
+			if(PathMetrics.isEnabled()) PathMetrics.get().getCounter("regions.rejected").incrementAndGet();
+			return null;
+		}
 		
-		return distFinal;
+		boolean jumpPoints = algorithm == SearchAlgorithm.JUMP_POINT && costModel.isUniform();
+		if(!PathMetrics.isEnabled()) return jumpPoints ? JumpPointSearch.findPath(grid, from, to, context) : AStarSearch.findPath(grid, from, to, costModel, context);
+		
+		context.beginQuery();
+		long start = System.nanoTime();
+		List<Cell> path = jumpPoints ? JumpPointSearch.findPath(grid, from, to, context) : AStarSearch.findPath(grid, from, to, costModel, context);
+		PathMetrics.get().getQueries(jumpPoints ? "jps" : "astar").record(from, to, context, System.nanoTime() - start, path);
+		return path;
+	}
+
+	/**
+	 * Sets the algorithm used when no algorithm is given
+	 */
+	public static void setAlgorithm(SearchAlgorithm algorithm) {
+		PathFinder.algorithm = algorithm;
 	}
-	
-}
\ No newline at end of file
+
+	public static SearchAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Sets the costs used when no cost model is given
+	 */
+	public static void setCostModel(PathCostModel costModel) {
+		PathFinder.costModel = costModel;
+	}
+
+	public static PathCostModel getCostModel() {
+		return costModel;
+	}
+
+}